@@ -0,0 +1,292 @@
+package objectdetection;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * @author Andrew King
+ *         Compares a JMH JSON result file with the stored baseline (bench/baseline.json) and exits with 1 when any
+ *         benchmark got slower by more than the tolerance and by more than the two error margins together.
+ *         --update replaces the baseline with the results, do that on the reference machine after an accepted change.
+ *         No baseline is committed since timings only compare on the same machine, see bench/README.md. Exits with 2
+ *         when there is no baseline yet and warns when the results were run with other JMH or JVM settings
+ */
+public final class BaselineComparator {
+
+    static final String DEFAULT_BASELINE = "bench/baseline.json";
+    static final double DEFAULT_TOLERANCE = 0.10;
+    //run settings of a JMH result that have to match for the scores to be comparable
+    static final String[] SETTINGS = {"jdkVersion", "vmName", "vmVersion", "jvmArgs", "forks", "warmupIterations",
+            "warmupTime", "measurementIterations", "measurementTime", "threads"};
+
+    private BaselineComparator() {
+    }
+
+    /**
+     * Arg 1: results.json -- Arg 2: baseline (optional) -- Arg 3: tolerance as a fraction (optional)
+     * or --update results.json [baseline]
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("usage: BaselineComparator <results.json> [baseline.json] [tolerance]");
+            System.err.println("       BaselineComparator --update <results.json> [baseline.json]");
+            System.exit(2);
+        }
+        if (args[0].equals("--update")) {
+            Path baseline = Paths.get(args.length > 2 ? args[2] : DEFAULT_BASELINE);
+            Files.copy(Paths.get(args[1]), baseline, StandardCopyOption.REPLACE_EXISTING);
+            System.out.println("baseline updated: " + baseline);
+            return;
+        }
+        Path baselineFile = Paths.get(args.length > 1 ? args[1] : DEFAULT_BASELINE);
+        double tolerance = args.length > 2 ? Double.parseDouble(args[2]) : DEFAULT_TOLERANCE;
+        if (!Files.exists(baselineFile)) {
+            System.err.println("No baseline at " + baselineFile + ", none is committed since timings only compare on the"
+                    + " same machine. Record one here with --update " + args[0] + " (see bench/README.md)");
+            System.exit(2);
+        }
+        Map<String, Score> current = read(Paths.get(args[0]));
+        Map<String, Score> baseline = read(baselineFile);
+        Map<String, Object> currentSettings = settings(Paths.get(args[0]));
+        Map<String, Object> baselineSettings = settings(baselineFile);
+        for (String setting : SETTINGS) {
+            Object now = currentSettings.get(setting);
+            Object before = baselineSettings.get(setting);
+            if (now == null ? before != null : !now.equals(before)) {
+                System.out.println("warning: " + setting + " is " + now + " but the baseline was run with " + before);
+            }
+        }
+        int regressions = 0;
+        for (Map.Entry<String, Score> entry : current.entrySet()) {
+            Score now = entry.getValue();
+            Score before = baseline.get(entry.getKey());
+            if (before == null) {
+                System.out.printf("%-100s %12s %12.4f %s  new%n", entry.getKey(), "-", now.score, now.unit);
+                continue;
+            }
+            //for throughput more is better, for the time modes less is better
+            double change = (now.score - before.score) / before.score;
+            double worse = now.higherIsBetter ? -change : change;
+            boolean beyondNoise = Math.abs(now.score - before.score) > now.error + before.error;
+            String verdict = "";
+            if (worse > tolerance && beyondNoise) {
+                verdict = "REGRESSION";
+                regressions++;
+            } else if (-worse > tolerance && beyondNoise) {
+                verdict = "improved";
+            }
+            System.out.printf("%-100s %12.4f %12.4f %s %+7.1f%%  %s%n", entry.getKey(), before.score, now.score, now.unit,
+                    change * 100, verdict);
+        }
+        for (String key : baseline.keySet()) {
+            if (!current.containsKey(key)) {
+                System.out.printf("%-100s missing from the results%n", key);
+            }
+        }
+        System.out.println(regressions + " regression(s) beyond " + Math.round(tolerance * 100) + "%");
+        if (regressions > 0) {
+            System.exit(1);
+        }
+    }
+
+    static final class Score {
+        final double score;
+        final double error;
+        final String unit;
+        final boolean higherIsBetter;
+
+        Score(double score, double error, String unit, boolean higherIsBetter) {
+            this.score = score;
+            this.error = error;
+            this.unit = unit;
+            this.higherIsBetter = higherIsBetter;
+        }
+    }
+
+    /**
+     * Reads the primary scores of a JMH JSON result file, keyed by benchmark name and sorted parameters
+     */
+    @SuppressWarnings("unchecked")
+    static Map<String, Score> read(Path file) throws IOException {
+        Object json = new JsonReader(new String(Files.readAllBytes(file), StandardCharsets.UTF_8)).value();
+        Map<String, Score> scores = new TreeMap<>();
+        for (Object item : (List<Object>) json) {
+            Map<String, Object> run = (Map<String, Object>) item;
+            StringBuilder key = new StringBuilder((String) run.get("benchmark"));
+            Object params = run.get("params");
+            if (params != null) {
+                key.append(new TreeMap<>((Map<String, Object>) params));
+            }
+            Map<String, Object> metric = (Map<String, Object>) run.get("primaryMetric");
+            scores.put(key.toString(), new Score(number(metric.get("score")), number(metric.get("scoreError")),
+                    (String) metric.get("scoreUnit"), "thrpt".equals(run.get("mode"))));
+        }
+        return scores;
+    }
+
+    /**
+     * Run settings (see SETTINGS) of the first benchmark of a JMH JSON result file
+     */
+    @SuppressWarnings("unchecked")
+    static Map<String, Object> settings(Path file) throws IOException {
+        List<Object> runs = (List<Object>) new JsonReader(new String(Files.readAllBytes(file), StandardCharsets.UTF_8)).value();
+        Map<String, Object> settings = new LinkedHashMap<>();
+        if (!runs.isEmpty()) {
+            Map<String, Object> run = (Map<String, Object>) runs.get(0);
+            for (String setting : SETTINGS) {
+                settings.put(setting, run.get(setting));
+            }
+        }
+        return settings;
+    }
+
+    //JMH writes NaN and the infinities as strings
+    private static double number(Object value) {
+        if (value instanceof Double) {
+            return (Double) value;
+        }
+        return value == null ? Double.NaN : Double.parseDouble(value.toString());
+    }
+
+    /**
+     * Just enough of a JSON reader for the JMH result files: objects, arrays, strings, numbers, booleans and null
+     */
+    static final class JsonReader {
+
+        private final String text;
+        private int pos;
+
+        JsonReader(String text) {
+            this.text = text;
+        }
+
+        Object value() {
+            skipWhitespace();
+            char ch = text.charAt(pos);
+            if (ch == '{') {
+                return object();
+            } else if (ch == '[') {
+                return array();
+            } else if (ch == '"') {
+                return string();
+            } else if (text.startsWith("true", pos)) {
+                pos += 4;
+                return Boolean.TRUE;
+            } else if (text.startsWith("false", pos)) {
+                pos += 5;
+                return Boolean.FALSE;
+            } else if (text.startsWith("null", pos)) {
+                pos += 4;
+                return null;
+            }
+            int start = pos;
+            while (pos < text.length() && "+-0123456789.eE".indexOf(text.charAt(pos)) >= 0) {
+                pos++;
+            }
+            if (start == pos) {
+                throw new IllegalArgumentException("Unexpected '" + ch + "' at " + pos);
+            }
+            return Double.parseDouble(text.substring(start, pos));
+        }
+
+        private Map<String, Object> object() {
+            Map<String, Object> object = new LinkedHashMap<>();
+            pos++;
+            skipWhitespace();
+            if (text.charAt(pos) == '}') {
+                pos++;
+                return object;
+            }
+            while (true) {
+                skipWhitespace();
+                String name = string();
+                expect(':');
+                object.put(name, value());
+                skipWhitespace();
+                if (text.charAt(pos++) == '}') {
+                    return object;
+                }
+            }
+        }
+
+        private List<Object> array() {
+            List<Object> array = new ArrayList<>();
+            pos++;
+            skipWhitespace();
+            if (text.charAt(pos) == ']') {
+                pos++;
+                return array;
+            }
+            while (true) {
+                array.add(value());
+                skipWhitespace();
+                if (text.charAt(pos++) == ']') {
+                    return array;
+                }
+            }
+        }
+
+        private String string() {
+            expect('"');
+            StringBuilder value = new StringBuilder();
+            while (true) {
+                char ch = text.charAt(pos++);
+                if (ch == '"') {
+                    return value.toString();
+                }
+                if (ch == '\\') {
+                    char escaped = text.charAt(pos++);
+                    switch (escaped) {
+                        case 'n':
+                            value.append('\n');
+                            break;
+                        case 't':
+                            value.append('\t');
+                            break;
+                        case 'r':
+                            value.append('\r');
+                            break;
+                        case 'b':
+                            value.append('\b');
+                            break;
+                        case 'f':
+                            value.append('\f');
+                            break;
+                        case 'u':
+                            value.append((char) Integer.parseInt(text.substring(pos, pos + 4), 16));
+                            pos += 4;
+                            break;
+                        default:
+                            value.append(escaped);
+                            break;
+                    }
+                } else {
+                    value.append(ch);
+                }
+            }
+        }
+
+        private void expect(char expected) {
+            skipWhitespace();
+            if (text.charAt(pos) != expected) {
+                throw new IllegalArgumentException("Expected '" + expected + "' at " + pos);
+            }
+            pos++;
+        }
+
+        private void skipWhitespace() {
+            while (pos < text.length() && Character.isWhitespace(text.charAt(pos))) {
+                pos++;
+            }
+        }
+    }
+}
@@ -0,0 +1,496 @@
+package objectdetection;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * @author Andrew King
+ *         The thresholds, labeler and component calculations of the original applet, kept as the reference
+ *         ConsistencyCheck compares the optimized code with. The only changes are fixes the detector made too:
+ *         neighbours outside the image are background (the applet read its first background pixel or pixel 0 for
+ *         them, took the end of the row above as the west neighbour of the first column and failed on images without
+ *         background), the sums are long instead of int, the pixels of partial adaptive tiles are background and
+ *         the labels are renumbered all at once (one list at a time, a list whose smallest label had already been
+ *         handed out to an earlier list was merged into it). It is slow on purpose, keep the images small
+ */
+final class BaselineDetection {
+
+    final int displayWidth;
+    final int displayHeight;
+    //gray levels, then the binary image, then the labels
+    final short[] imageArray;
+    short itemCount = 0;
+    final List<Component> listOfItems = new ArrayList<>();
+
+    BaselineDetection(byte[] gray, int width, int height) {
+        displayWidth = width;
+        displayHeight = height;
+        imageArray = new short[width * height];
+        for (int i = 0; i < imageArray.length; i++) {
+            imageArray[i] = (short) Byte.toUnsignedInt(gray[i]);
+        }
+    }
+
+    /**
+     * Converts the gray scale region to a binary image based on our threshold
+     */
+    void simpleThreshold(int threshold, short[] imageRegion) {
+        for (int i = 0; i < imageRegion.length; i++) {
+            //if the brightness is less than our threshold color the pixel black otherwise white
+            if (imageRegion[i] > threshold) {
+                imageRegion[i] = 0;
+            } else {
+                imageRegion[i] = 1;
+            }
+        }
+    }
+
+    void modeThreshold() {
+        int[] histogram = createHistogram();
+        int[] FOM = findFigureOfMerit(histogram);
+        simpleThreshold(FOM[1], imageArray);
+    }
+
+    void iterativeThreshold(short[] imageRegion) {
+        //calculate average intensity for initial threshold
+        long averageIntensity = 0;
+        for (int pixel : imageRegion) {
+            averageIntensity += pixel;
+        }
+        averageIntensity = averageIntensity / imageRegion.length;
+
+        double movingThreshold = averageIntensity;
+        double regionOneMean = 0;
+        double regionTwoMean = 0;
+        while (true) {
+            long regionOne = 0;
+            long regionTwo = 0;
+            int regionOneSize = 0;
+            int regionTwoSize = 0;
+            for (int pixel : imageRegion) {
+                if (pixel <= movingThreshold) {
+                    regionOne += pixel;
+                    regionOneSize++;
+                } else {
+                    regionTwo += pixel;
+                    regionTwoSize++;
+                }
+            }
+            //prevent divide by zero error AND if we haven't changed then move on
+            if (regionOneSize < 1 || regionTwoSize < 1 || (regionOne / regionOneSize == regionOneMean && regionTwoMean == regionTwo / regionTwoSize)) {
+                break;
+            }
+            regionOneMean = regionOne / regionOneSize;
+            regionTwoMean = regionTwo / regionTwoSize;
+            movingThreshold = (regionOneMean + regionTwoMean) / 2;
+        }
+        simpleThreshold((int) movingThreshold, imageRegion);
+    }
+
+    void adaptiveThreshold(short m) {
+        //the applet left the pixels of partial tiles gray
+        for (int i = 0; i < imageArray.length; i++) {
+            if (i % displayWidth >= displayWidth / m * m || i / displayWidth >= displayHeight / m * m) {
+                imageArray[i] = 0;
+            }
+        }
+        for (int y = 0; y < displayHeight / m; y++) {
+            for (int x = 0; x < displayWidth / m; x++) {
+                short[] region = new short[m * m];
+                for (int y2 = 0; y2 < m; y2++) {
+                    for (int x2 = 0; x2 < m; x2++) {
+                        region[x2 + (y2 * m)] = imageArray[((y * m) * displayWidth) + (x * m) + (y2 * displayWidth) + x2];
+                    }
+                }
+                iterativeThreshold(region);
+                for (int y2 = 0; y2 < m; y2++) {
+                    for (int x2 = 0; x2 < m; x2++) {
+                        imageArray[((y * m) * displayWidth) + (x * m) + (y2 * displayWidth) + x2] = region[x2 + (y2 * m)];
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * The applet's sweeps until no uncertain pixel changes, it only had 4 neighbours, 8 is the detector's option
+     */
+    void doubleThreshold(int connectivity) {
+        int[] histogram = createHistogram();
+        int[] FOM = findFigureOfMerit(histogram);
+        for (int i = 0; i < imageArray.length; i++) {
+            if (imageArray[i] < FOM[0]) {
+                imageArray[i] = 1;
+            } else if (imageArray[i] > FOM[2]) {
+                imageArray[i] = 0;
+            } else {
+                imageArray[i] = 2;
+            }
+        }
+        while (true) {
+            int changes = 0;
+            for (int i = 0; i < imageArray.length; i++) {
+                if (imageArray[i] == 2) {
+                    int x = i % displayWidth;
+                    int y = i / displayWidth;
+                    boolean connected = isForeground(x, y - 1) || isForeground(x + 1, y) || isForeground(x, y + 1) || isForeground(x - 1, y);
+                    if (connectivity == 8) {
+                        connected |= isForeground(x - 1, y - 1) || isForeground(x + 1, y - 1) || isForeground(x - 1, y + 1) || isForeground(x + 1, y + 1);
+                    }
+                    if (connected) {
+                        imageArray[i] = 1;
+                        changes++;
+                    }
+                }
+            }
+            if (changes == 0) {
+                break;
+            }
+        }
+        //reassign any pixels that are still in r2 to the background
+        for (int i = 0; i < imageArray.length; i++) {
+            if (imageArray[i] == 2) {
+                imageArray[i] = 0;
+            }
+        }
+    }
+
+    private boolean isForeground(int x, int y) {
+        return x >= 0 && y >= 0 && x < displayWidth && y < displayHeight && imageArray[y * displayWidth + x] == 1;
+    }
+
+    int[] createHistogram() {
+        int[] histogram = new int[256];
+        for (short pixel : imageArray) {
+            histogram[pixel]++;
+        }
+        //smooth histogram
+        for (int i = 1; i < histogram.length - 1; i++) {
+            histogram[i] = (histogram[i - 1] + histogram[i] + histogram[i + 1]) / 3;
+        }
+        return histogram;
+    }
+
+    int[] findFigureOfMerit(int[] histogram) {
+        List<Integer> modes = new ArrayList<>();
+        for (int i = 1; i < histogram.length - 1; i++) {
+            if (histogram[i] >= histogram[i + 1] && histogram[i] > histogram[i - 1]) {
+                modes.add(i);
+            }
+        }
+        int minDistance = 60;
+        float highestPeakiness = 0;
+        int threshold = 0;
+        int peak1 = 0;
+        int peak2 = 0;
+        for (int i = 0; i < modes.size(); i++) {
+            for (int x = i; x < modes.size(); x++) {
+                if (modes.get(i) + minDistance <= modes.get(x)) {
+                    int valley = modes.get(i);
+                    for (int from = modes.get(i); from < modes.get(x); from++) {
+                        if (histogram[from] < histogram[valley]) {
+                            valley = from;
+                        }
+                    }
+                    float peakiness = Integer.min(histogram[modes.get(i)], histogram[modes.get(x)]) / (float) histogram[valley];
+                    if (peakiness > highestPeakiness) {
+                        highestPeakiness = peakiness;
+                        peak1 = modes.get(i);
+                        peak2 = modes.get(x);
+                        threshold = valley;
+                    }
+                }
+            }
+        }
+        return new int[]{peak1, threshold, peak2};
+    }
+
+    /**
+     * The applet's sequential labeler with its list of lists equivalence table, then the collapse, the size filter
+     * and the calculations of every component
+     */
+    void connectedComponent(int filtersize) {
+        EquivalenceLists equivTab = new EquivalenceLists();
+        for (int i = 0; i < imageArray.length; i++) {
+            if (imageArray[i] == 1) {
+                short north = i >= displayWidth ? imageArray[i - displayWidth] : 0;
+                short west = i % displayWidth > 0 ? imageArray[i - 1] : 0;
+                if (north > 1 && west < 2) {
+                    imageArray[i] = north;
+                } else if (west > 1 && north < 2) {
+                    imageArray[i] = west;
+                } else if (north == west && north > 1) {
+                    imageArray[i] = north;
+                } else if (north != west && north > 1 && west > 1) {
+                    imageArray[i] = north;
+                    equivTab.assignNewValue(west, north);
+                } else {
+                    imageArray[i] = equivTab.getLabelNumber();
+                    equivTab.createNewLabel(imageArray[i]);
+                }
+            }
+        }
+        collapseLabels(equivTab);
+        createComponents();
+        componentSizeFilter(filtersize);
+        for (Component cc : listOfItems) {
+            cc.runCalculations(displayWidth, displayHeight, imageArray);
+        }
+    }
+
+    private void collapseLabels(EquivalenceLists equivTab) {
+        for (int i = 0; i < imageArray.length; i++) {
+            if (imageArray[i] > 1) {
+                imageArray[i] = equivTab.findLowest(imageArray[i]);
+            }
+        }
+        //then shift the label numbers to be sequential starting with 2, in the order of the lists
+        short[] sequential = new short[equivTab.labelCount];
+        int numOfComp = equivTab.getNumOfObjects();
+        for (int i = 0; i < numOfComp; i++) {
+            itemCount++;
+            sequential[equivTab.getLabel(i)] = (short) (itemCount + 1);
+        }
+        for (int p = 0; p < imageArray.length; p++) {
+            imageArray[p] = sequential[imageArray[p]];
+        }
+    }
+
+    private void createComponents() {
+        for (int i = 0; i < itemCount; i++) {
+            Component item = new Component();
+            listOfItems.add(item);
+            for (int p = 0; p < imageArray.length; p++) {
+                if (imageArray[p] == i + 2) {
+                    item.pixels.add(p);
+                }
+            }
+        }
+    }
+
+    private void componentSizeFilter(int filterSize) {
+        Iterator<Component> iter = listOfItems.iterator();
+        while (iter.hasNext()) {
+            Component cc = iter.next();
+            if (cc.pixels.size() < filterSize) {
+                for (int pixel : cc.pixels) {
+                    imageArray[pixel] = 0;
+                }
+                iter.remove();
+                itemCount--;
+            }
+        }
+    }
+
+    /**
+     * Every label is in exactly one list, the labels of a list are equivalent and the smallest one names them
+     */
+    private static final class EquivalenceLists {
+
+        final List<List<Short>> listOfLists = new ArrayList<>();
+        short labelCount = 2;
+
+        void createNewLabel(short newInt) {
+            List<Short> myList = new ArrayList<>();
+            myList.add(newInt);
+            listOfLists.add(myList);
+        }
+
+        void assignNewValue(short west, short north) {
+            int indexOfNorth = find(north);
+            int indexOfWest = find(west);
+            if (indexOfNorth != indexOfWest) {
+                listOfLists.get(indexOfNorth).addAll(listOfLists.get(indexOfWest));
+                listOfLists.remove(indexOfWest);
+            }
+        }
+
+        int find(short x) {
+            for (int i = 0; i < listOfLists.size(); i++) {
+                if (listOfLists.get(i).contains(x)) {
+                    return i;
+                }
+            }
+            throw new IllegalStateException("Label " + x + " is in no list");
+        }
+
+        short findLowest(short label) { return Collections.min(listOfLists.get(find(label))); }
+
+        short getLabel(int i) { return Collections.min(listOfLists.get(i)); }
+
+        int getNumOfObjects() { return listOfLists.size(); }
+
+        short getLabelNumber() { return labelCount++; }
+    }
+
+    /**
+     * The applet's ConnectedComponent
+     */
+    static final class Component {
+
+        final List<Integer> pixels = new ArrayList<>();
+        final HashMap<Integer, Short> medialAxis = new HashMap<>();
+        final List<Integer> perimeter = new ArrayList<>();
+        int width, height;
+        int top, left, centroidX, centroidY;
+        float a, b, c;
+        double compactness;
+
+        void runCalculations(int displayWidth, int displayHeight, short[] binaryImg) {
+            calcPerimeter(displayWidth, displayHeight, binaryImg);
+            calcCentroid(displayWidth);
+            calcBounds(displayWidth);
+            calcAxis(displayWidth);
+            calcMedialAxis(displayWidth, displayHeight);
+            compactness = Math.pow(perimeter.size(), 2) / pixels.size();
+        }
+
+        private void calcPerimeter(int displayWidth, int displayHeight, short[] binaryImg) {
+            for (int pixel : pixels) {
+                int N = pixel - displayWidth;
+                int E = pixel + 1;
+                int S = pixel + displayWidth;
+                int W = pixel - 1;
+                if (inBounds(pixel, displayWidth, displayHeight) && (binaryImg[N] == 0 || binaryImg[E] == 0 || binaryImg[S] == 0 || binaryImg[W] == 0)) {
+                    perimeter.add(pixel);
+                }
+            }
+        }
+
+        //true when all 4 neighbours are in the image
+        private static boolean inBounds(int pixel, int displayWidth, int displayHeight) {
+            int x = pixel % displayWidth;
+            int y = pixel / displayWidth;
+            return x > 0 && y > 0 && x < displayWidth - 1 && y < displayHeight - 1;
+        }
+
+        private void calcCentroid(int displayWidth) {
+            long xBar = 0;
+            long yBar = 0;
+            for (int pixel : pixels) {
+                xBar += pixel % displayWidth;
+                yBar += pixel / displayWidth;
+            }
+            centroidX = (int) (xBar / pixels.size());
+            centroidY = (int) (yBar / pixels.size());
+        }
+
+        private void calcBounds(int fullWidth) {
+            left = Integer.MAX_VALUE;
+            int right = 0;
+            int max = Collections.max(pixels);
+            int min = Collections.min(pixels);
+            for (int pixel : pixels) {
+                if (pixel % fullWidth < left) {
+                    left = pixel % fullWidth;
+                }
+                if (pixel % fullWidth > right) {
+                    right = pixel % fullWidth;
+                }
+            }
+            left = left - 1;
+            width = right - left;
+            top = (min / fullWidth) - 1;
+            int bottom = max / fullWidth;
+            height = bottom - top;
+        }
+
+        //the moments are summed in float like the applet did
+        private void calcAxis(int displayWidth) {
+            a = 0;
+            b = 0;
+            c = 0;
+            for (int pixel : pixels) {
+                int xPrime = pixel % displayWidth - centroidX;
+                int yPrime = pixel / displayWidth - centroidY;
+                a += Math.pow(xPrime, 2);
+                b += xPrime * yPrime;
+                c += Math.pow(yPrime, 2);
+            }
+            b = b * 2;
+        }
+
+        private void calcMedialAxis(int displayWidth, int displayHeight) {
+            short[] distTrans = new short[displayWidth * displayHeight];
+            calcDistanceTransforms(displayWidth, displayHeight, distTrans);
+            for (int pixel : pixels) {
+                short current = distTrans[pixel];
+                int x = pixel % displayWidth;
+                int y = pixel / displayWidth;
+                //neighbours outside of the image are background
+                int north = y > 0 ? distTrans[pixel - displayWidth] : 0;
+                int east = x < displayWidth - 1 ? distTrans[pixel + 1] : 0;
+                int south = y < displayHeight - 1 ? distTrans[pixel + displayWidth] : 0;
+                int west = x > 0 ? distTrans[pixel - 1] : 0;
+                if (current >= north && current >= east && current >= south && current >= west) {
+                    medialAxis.put(pixel, current);
+                }
+            }
+        }
+
+        //one layer per sweep over the component
+        private void calcDistanceTransforms(int displayWidth, int displayHeight, short[] distTrans) {
+            for (int pixel : pixels) {
+                distTrans[pixel] = 1;
+            }
+            for (short x = 2; x < Math.min(displayWidth, displayHeight); x++) {
+                boolean changesMade = false;
+                for (int pixel : pixels) {
+                    int N = pixel - displayWidth;
+                    int E = pixel + 1;
+                    int S = pixel + displayWidth;
+                    int W = pixel - 1;
+                    if (inBounds(pixel, displayWidth, displayHeight) && (distTrans[N] == x || distTrans[N] == x - 1) && (distTrans[E] == x || distTrans[E] == x - 1)
+                            && (distTrans[S] == x || distTrans[S] == x - 1) && (distTrans[W] == x || distTrans[W] == x - 1)) {
+                        distTrans[pixel] = x;
+                        changesMade = true;
+                    }
+                }
+                if (!changesMade) {
+                    break;
+                }
+            }
+        }
+
+        /**
+         * Adds the pixels reconstructed from the medial axis to the pixels, one sweep of the image per level
+         */
+        void deSkeletonize(int displayWidth, int displayHeight) {
+            short[] deSkeleton = new short[displayWidth * displayHeight];
+            short maxValue = 0;
+            for (Integer pixel : medialAxis.keySet()) {
+                deSkeleton[pixel] = medialAxis.get(pixel);
+                maxValue = (short) Math.max(maxValue, deSkeleton[pixel]);
+            }
+            for (int i = maxValue; i > 1; i--) {
+                for (int x = 0; x < deSkeleton.length; x++) {
+                    if (deSkeleton[x] == i) {
+                        int N = x - displayWidth;
+                        int E = x + 1;
+                        int S = x + displayWidth;
+                        int W = x - 1;
+                        if (!(N < 0) && deSkeleton[N] == 0) {
+                            deSkeleton[N] = (short) (i - 1);
+                            pixels.add(N);
+                        }
+                        if (!(E % displayWidth == 0) && deSkeleton[E] == 0) {
+                            deSkeleton[E] = (short) (i - 1);
+                            pixels.add(E);
+                        }
+                        if (!(S >= displayWidth * displayHeight) && deSkeleton[S] == 0) {
+                            deSkeleton[S] = (short) (i - 1);
+                            pixels.add(S);
+                        }
+                        if (!(x % displayWidth == 0) && deSkeleton[W] == 0) {
+                            deSkeleton[W] = (short) (i - 1);
+                            pixels.add(W);
+                        }
+                    }
+                }
+            }
+        }
+    }
+}
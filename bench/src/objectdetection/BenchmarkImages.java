@@ -0,0 +1,74 @@
+package objectdetection;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * @author Andrew King
+ *         Inputs of the benchmarks, named either by a bundled DT-IMAGE file (looked up in the directory given by the
+ *         objectdetection.images property, the working directory by default) or as synthetic:size:objects:noise.
+ *         Synthetic images always use the same seed for the same name and are also written to a temporary file so
+ *         loading them can be timed too. Every image is only read or generated once per JVM
+ */
+final class BenchmarkImages {
+
+    static final long SEED = 0x0B1EC7L;
+
+    private static final Map<String, Image> CACHE = new HashMap<>();
+
+    static final class Image {
+        final String name;
+        final byte[] gray;
+        final int width;
+        final int height;
+        final Path file;
+
+        Image(String name, byte[] gray, int width, int height, Path file) {
+            this.name = name;
+            this.gray = gray;
+            this.width = width;
+            this.height = height;
+            this.file = file;
+        }
+    }
+
+    private BenchmarkImages() {
+    }
+
+    static synchronized Image get(String name) throws IOException {
+        Image image = CACHE.get(name);
+        if (image == null) {
+            image = name.startsWith("synthetic:") ? synthesize(name) : read(name);
+            CACHE.put(name, image);
+        }
+        return image;
+    }
+
+    private static Image read(String name) throws IOException {
+        Path file = Paths.get(System.getProperty("objectdetection.images", ".")).resolve(name);
+        DtImage dtImage = DtImage.open(file);
+        byte[] gray = new byte[dtImage.getWidth() * dtImage.getHeight()];
+        dtImage.getPixels().get(gray);
+        return new Image(name, gray, dtImage.getWidth(), dtImage.getHeight(), file);
+    }
+
+    //synthetic:size:objects:noise, a square image
+    private static Image synthesize(String name) throws IOException {
+        String[] parts = name.split(":");
+        if (parts.length != 4) {
+            throw new IllegalArgumentException("Expected synthetic:size:objects:noise but got " + name);
+        }
+        int size = Integer.parseInt(parts[1]);
+        int objects = Integer.parseInt(parts[2]);
+        double noise = Double.parseDouble(parts[3]);
+        byte[] gray = SyntheticImage.generate(size, size, objects, noise, SEED ^ name.hashCode());
+        Path file = Files.createTempFile("objectdetection-" + size + "-", ".img");
+        file.toFile().deleteOnExit();
+        SyntheticImage.write(file, gray, size, size);
+        return new Image(name, gray, size, size, file);
+    }
+}
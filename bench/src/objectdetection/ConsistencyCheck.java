@@ -0,0 +1,859 @@
+package objectdetection;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * @author Andrew King
+ *         Runnable cross-checks of the equivalent code paths: the sequential, striped, run-length and streaming
+ *         labelers against each other, the component index against brute force, the pixel kernels against the
+ *         scalar ones, every threshold method and the components with all their features against the applet's code
+ *         (BaselineDetection) or brute force, the distance transforms and their reconstruction against brute force,
+ *         the component tree against the detector, the result cache key and disk round trip and the CSV, JSON lines
+ *         and FeatureStore output of BatchRunner against direct detections.
+ *         Uses fixed seeds, also runs on the bundled images when they are found (objectdetection.images property,
+ *         the working directory by default) and exits with 1 when any check fails
+ */
+public final class ConsistencyCheck {
+
+    private static final String[] BUNDLED = {"comb.img", "test1.img", "test2.img", "test3.img"};
+
+    //a JSON line of ResultSink and the values in its components
+    private static final Pattern JSON_IMAGE = Pattern.compile("\\{\"image\":\"([^\"]*)\",\"items\":(\\d+),\"components\":\\[(.*)\\]\\}");
+    private static final Pattern JSON_VALUE = Pattern.compile("\"(\\w+)\":(null|[^,}]+)");
+
+    private int checks;
+    private int failures;
+
+    private ConsistencyCheck() {
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        ConsistencyCheck check = new ConsistencyCheck();
+        check.labelers();
+        check.busyImage();
+        check.componentIndex();
+        check.kernels();
+        check.thresholds();
+        check.baselineComponents();
+        check.distanceTransform();
+        check.componentTree();
+        check.resultCache();
+        check.batchRunner();
+        System.out.println(check.checks + " checks, " + check.failures + " failed");
+        if (check.failures > 0) {
+            System.exit(1);
+        }
+    }
+
+    private void check(boolean ok, String what) {
+        checks++;
+        if (!ok) {
+            failures++;
+            System.out.println("FAILED: " + what);
+        }
+    }
+
+    //gray image with its name, the random ones are 0 or 255 at the given density so every threshold gives the same binary
+    private static final class Gray {
+        final String name;
+        final byte[] pixels;
+        final int width;
+        final int height;
+
+        Gray(String name, byte[] pixels, int width, int height) {
+            this.name = name;
+            this.pixels = pixels;
+            this.width = width;
+            this.height = height;
+        }
+    }
+
+    private static Gray noise(Random random, int width, int height, double density) {
+        byte[] pixels = new byte[width * height];
+        for (int i = 0; i < pixels.length; i++) {
+            pixels[i] = (byte) (random.nextDouble() < density ? 0 : 255);
+        }
+        return new Gray("noise " + width + "x" + height + " " + density, pixels, width, height);
+    }
+
+    //random pixels from a few evenly spaced gray levels
+    private static Gray levels(Random random, int width, int height) {
+        byte[] pixels = new byte[width * height];
+        int levels = 2 + random.nextInt(30);
+        for (int p = 0; p < pixels.length; p++) {
+            pixels[p] = (byte) (random.nextInt(levels) * (256 / levels));
+        }
+        return new Gray("levels " + width + "x" + height, pixels, width, height);
+    }
+
+    private static List<Gray> images() throws IOException {
+        List<Gray> images = new ArrayList<>();
+        Random random = new Random(BenchmarkImages.SEED);
+        for (int i = 0; i < 40; i++) {
+            images.add(noise(random, 1 + random.nextInt(90), 1 + random.nextInt(90), random.nextDouble()));
+        }
+        for (String name : new String[]{"synthetic:512:50:10", "synthetic:1024:200:10"}) {
+            images.add(gray(BenchmarkImages.get(name)));
+        }
+        images.addAll(bundled());
+        return images;
+    }
+
+    //the applet's code is slow, so these stay at 512 x 512 and below
+    private static List<Gray> baselineImages() throws IOException {
+        List<Gray> images = new ArrayList<>();
+        Random random = new Random(11);
+        for (int i = 0; i < 12; i++) {
+            images.add(noise(random, 1 + random.nextInt(60), 1 + random.nextInt(60), random.nextDouble()));
+        }
+        for (int i = 0; i < 6; i++) {
+            images.add(levels(random, 1 + random.nextInt(120), 1 + random.nextInt(120)));
+        }
+        images.add(gray(BenchmarkImages.get("synthetic:512:50:10")));
+        images.addAll(bundled());
+        return images;
+    }
+
+    private static List<Gray> bundled() throws IOException {
+        List<Gray> images = new ArrayList<>();
+        Path directory = Paths.get(System.getProperty("objectdetection.images", "."));
+        for (String name : BUNDLED) {
+            if (Files.exists(directory.resolve(name))) {
+                images.add(gray(BenchmarkImages.get(name)));
+            }
+        }
+        return images;
+    }
+
+    private static Gray gray(BenchmarkImages.Image image) {
+        return new Gray(image.name, image.gray, image.width, image.height);
+    }
+
+    //every value a component reports, with its pixels when it has them
+    private static String describe(ConnectedComponent cc) {
+        return cc.getLabel() + " " + features(cc) + " " + (cc.pixels == null ? "-" : Arrays.toString(cc.pixels.toArray()));
+    }
+
+    //the values every labeler (streaming too) computes the same way, without the label
+    private static String features(ConnectedComponent cc) {
+        return cc.getArea() + " " + cc.getCentroidX() + "," + cc.getCentroidY() + " " + cc.getTop() + "," + cc.getLeft()
+                + "," + cc.getWidth() + "," + cc.getHeight() + " " + cc.getA() + " " + cc.getB() + " " + cc.getC();
+    }
+
+    private static String describe(DetectionResult result) {
+        StringBuilder text = new StringBuilder(Integer.toHexString(Arrays.hashCode(result.getLabels())));
+        for (ConnectedComponent cc : result.getComponents()) {
+            text.append('\n').append(describe(cc));
+        }
+        return text.toString();
+    }
+
+    private static List<String> streamed(Gray image, int filterSize) throws IOException {
+        List<String> components = new ArrayList<>();
+        StreamingLabeler labeler = new StreamingLabeler(image.width, 128, filterSize, cc -> components.add(features(cc)));
+        labeler.read(new ByteArrayInputStream(image.pixels));
+        labeler.finish();
+        Collections.sort(components);
+        return components;
+    }
+
+    /**
+     * Striped and run-length labeling give the labels and components of the sequential raster scan, and the streaming
+     * labeler finds the same components
+     */
+    private void labelers() throws IOException {
+        for (Gray image : images()) {
+            for (int filterSize : new int[]{1, 20}) {
+                List<String> streamed = streamed(image, filterSize);
+                for (boolean featuresOnly : new boolean[]{false, true}) {
+                    DetectionParameters.Builder params = DetectionParameters.builder().filterSize(filterSize)
+                            .featuresOnly(featuresOnly);
+                    DetectionResult expected = new ObjectDetector().detect(image.pixels, image.width, image.height, params.build());
+                    String description = describe(expected);
+                    String what = image.name + " filter " + filterSize + (featuresOnly ? " features only" : "");
+                    for (int stripes : new int[]{2, 3, 7, 16}) {
+                        DetectionResult striped = new ObjectDetector().detect(image.pixels, image.width, image.height,
+                                params.labelingStripes(stripes).build());
+                        check(description.equals(describe(striped)), what + ": " + stripes + " stripes");
+                    }
+                    DetectionResult runs = new ObjectDetector().detect(image.pixels, image.width, image.height,
+                            params.labelingStripes(1).runLengthLabeling(true).build());
+                    params.runLengthLabeling(false);
+                    check(description.equals(describe(runs)), what + ": run-length");
+                    List<String> found = new ArrayList<>();
+                    for (ConnectedComponent cc : expected.getComponents()) {
+                        found.add(features(cc));
+                    }
+                    Collections.sort(found);
+                    check(found.equals(streamed), what + ": streaming");
+                }
+            }
+        }
+    }
+
+    /**
+     * More components than the short labels hold before the size filter but few enough after it: every labeler
+     * numbers the survivors and agrees with the streaming labeler
+     */
+    private void busyImage() throws IOException {
+        Gray image = noise(new Random(9), 1024, 1024, 0.45);
+        List<String> streamed = streamed(image, 20);
+        for (boolean featuresOnly : new boolean[]{false, true}) {
+            for (int variant = 0; variant < 3; variant++) {
+                DetectionParameters params = DetectionParameters.builder().filterSize(20).featuresOnly(featuresOnly)
+                        .labelingStripes(variant == 1 ? 8 : 1).runLengthLabeling(variant == 2).build();
+                String what = "busy image " + (featuresOnly ? "features only " : "") + new String[]{"sequential", "stripes", "run-length"}[variant];
+                DetectionResult result = new ObjectDetector().detect(image.pixels, image.width, image.height, params);
+                List<String> found = new ArrayList<>();
+                boolean labeled = true;
+                for (int i = 0; i < result.getItemCount(); i++) {
+                    ConnectedComponent cc = result.getComponents().get(i);
+                    found.add(features(cc));
+                    labeled &= cc.getLabel() == i + 2;
+                }
+                Collections.sort(found);
+                check(found.equals(streamed), what + ": components");
+                check(labeled, what + ": labels");
+            }
+        }
+    }
+
+    /**
+     * Region and point queries of the index against a scan of every component
+     */
+    private void componentIndex() throws IOException {
+        Random random = new Random(7);
+        BenchmarkImages.Image image = BenchmarkImages.get("synthetic:1024:200:10");
+        DetectionResult result = new ObjectDetector().detect(image.gray, image.width, image.height,
+                DetectionParameters.builder().filterSize(20).build());
+        ComponentIndex index = result.getIndex();
+        List<ConnectedComponent> components = result.getComponents();
+        IntList matches = new IntList();
+        boolean regionsMatch = true;
+        for (int q = 0; q < 2000; q++) {
+            int x0 = random.nextInt(image.width + 40) - 20;
+            int y0 = random.nextInt(image.height + 40) - 20;
+            int x1 = x0 + random.nextInt(q % 3 == 0 ? image.width : 60);
+            int y1 = y0 + random.nextInt(60);
+            matches.clear();
+            index.query(x0, y0, x1, y1, matches);
+            Set<Integer> found = new HashSet<>();
+            for (int k = 0; k < matches.size(); k++) {
+                regionsMatch &= found.add(matches.get(k));
+            }
+            Set<Integer> expected = new HashSet<>();
+            for (int i = 0; i < components.size(); i++) {
+                ConnectedComponent cc = components.get(i);
+                //the bounding box is stored one pixel out on the top and left
+                if (cc.getLeft() + 1 <= x1 && cc.getLeft() + cc.getWidth() >= x0
+                        && cc.getTop() + 1 <= y1 && cc.getTop() + cc.getHeight() >= y0) {
+                    expected.add(i);
+                }
+            }
+            regionsMatch &= expected.equals(found);
+        }
+        check(regionsMatch, "component index region queries");
+        boolean pointsMatch = true;
+        for (int q = 0; q < 20000; q++) {
+            int x = random.nextInt(image.width);
+            int y = random.nextInt(image.height);
+            ConnectedComponent cc = index.componentAt(x, y);
+            short label = result.getLabel(x, y);
+            pointsMatch &= label == 0 ? cc == null : cc != null && cc.getLabel() == label;
+        }
+        check(pointsMatch, "component index point queries");
+    }
+
+    /**
+     * The kernels in use (vectorized when available) and the scalar ones against a plain per-pixel threshold and
+     * histogram, on heap and direct buffers
+     */
+    private void kernels() {
+        PixelKernels kernels = PixelKernels.get();
+        PixelKernels scalar = new ScalarKernels();
+        Random random = new Random(1);
+        boolean same = true;
+        for (int t = 0; t < 200; t++) {
+            int length = random.nextInt(70000);
+            byte[] bytes = new byte[length + 3];
+            random.nextBytes(bytes);
+            ByteBuffer heap = ByteBuffer.wrap(bytes, 3, length).slice();
+            ByteBuffer direct = ByteBuffer.allocateDirect(length);
+            direct.put(bytes, 3, length).clear();
+            //out of range thresholds are all background or all foreground
+            int threshold = random.nextInt(8) == 0 ? random.nextInt(600) - 300 : random.nextInt(256);
+            int width = 1 + random.nextInt(300);
+            int rows = length / width;
+            int wordsPerRow = (width + 63) >>> 6;
+            long[] expected = new long[rows * wordsPerRow];
+            for (int i = 0; i < rows * width; i++) {
+                if ((bytes[3 + i] & 0xFF) <= threshold) {
+                    expected[(i / width) * wordsPerRow + ((i % width) >>> 6)] |= 1L << (i % width);
+                }
+            }
+            long[] fromScalar = new long[rows * wordsPerRow];
+            long[] fromHeap = new long[rows * wordsPerRow];
+            long[] fromDirect = new long[rows * wordsPerRow];
+            for (int y = 0; y < rows; y++) {
+                scalar.threshold(heap, y * width, width, threshold, fromScalar, y * wordsPerRow);
+                kernels.threshold(heap, y * width, width, threshold, fromHeap, y * wordsPerRow);
+                kernels.threshold(direct, y * width, width, threshold, fromDirect, y * wordsPerRow);
+            }
+            same &= Arrays.equals(expected, fromScalar) && Arrays.equals(expected, fromHeap)
+                    && Arrays.equals(expected, fromDirect);
+            int offset = random.nextInt(length + 1);
+            int count = random.nextInt(length - offset + 1);
+            int[] counted = new int[Histogram.BINS];
+            for (int i = offset; i < offset + count; i++) {
+                counted[bytes[3 + i] & 0xFF]++;
+            }
+            int[] scalarCounts = new int[Histogram.BINS];
+            int[] kernelCounts = new int[Histogram.BINS];
+            scalar.histogram(heap, offset, count, scalarCounts);
+            kernels.histogram(direct, offset, count, kernelCounts);
+            same &= Arrays.equals(counted, scalarCounts) && Arrays.equals(counted, kernelCounts);
+        }
+        check(same, kernels.getName() + " kernels against scalar");
+    }
+
+    /**
+     * Features-only detections read from the component tree against the detector at a spread of thresholds
+     */
+    private void componentTree() throws IOException {
+        List<Gray> images = new ArrayList<>();
+        Random random = new Random(3);
+        for (int i = 0; i < 4; i++) {
+            images.add(levels(random, 1 + random.nextInt(120), 1 + random.nextInt(120)));
+        }
+        images.add(gray(BenchmarkImages.get("synthetic:512:50:10")));
+        for (Gray image : images) {
+            ComponentTree tree = ComponentTree.build(ByteBuffer.wrap(image.pixels), image.width, image.height);
+            for (int filterSize : new int[]{1, 20}) {
+                int[] counts = tree.countsByThreshold(filterSize);
+                boolean same = true;
+                for (int threshold = 0; threshold < 256; threshold += 5) {
+                    DetectionResult expected = new ObjectDetector().detect(image.pixels, image.width, image.height,
+                            DetectionParameters.builder().threshold(threshold).filterSize(filterSize).featuresOnly(true).build());
+                    same &= describe(expected).equals(describe(tree.detectAt(threshold, filterSize)))
+                            && counts[threshold] == expected.getItemCount();
+                }
+                check(same, "component tree " + image.name + " filter " + filterSize);
+            }
+        }
+    }
+
+    /**
+     * Keys only depend on the parameters that change the output and are the same in every run, and results come
+     * back from the disk tier of a cache reopened on the same directory
+     */
+    private void resultCache() throws IOException {
+        BenchmarkImages.Image image = BenchmarkImages.get("synthetic:512:50:10");
+        ByteBuffer gray = ByteBuffer.wrap(image.gray);
+        DetectionParameters params = DetectionParameters.builder().filterSize(50).build();
+        ResultCache.Key key = ResultCache.key(gray, image.width, image.height, params);
+        check(key.equals(ResultCache.key(gray, image.width, image.height, DetectionParameters.builder().filterSize(50).build())),
+                "cache key of equal parameters");
+        check(key.equals(ResultCache.key(gray, image.width, image.height,
+                DetectionParameters.builder().filterSize(50).labelingStripes(4).runLengthLabeling(true).build())),
+                "cache key ignores the labeling strategy");
+        check(!key.equals(ResultCache.key(gray, image.width, image.height, DetectionParameters.builder().filterSize(50).threshold(90).build())),
+                "cache key of another threshold");
+        check(ResultCache.key(gray, image.width, image.height, DetectionParameters.builder().thresholdMethod(ThresholdMethod.OTSU).build())
+                        .equals(ResultCache.key(gray, image.width, image.height,
+                                DetectionParameters.builder().thresholdMethod(ThresholdMethod.OTSU).threshold(90).build())),
+                "cache key ignores the settings of other threshold methods");
+        //pinned so a change that would orphan the disk caches of earlier runs is noticed
+        check(ResultCache.describe(DetectionParameters.builder().build()).equals("SIMPLE threshold=128 filter=1000 "
+                        + "featuresOnly=false medialAxis=CITY_BLOCK features=CENTROID,BOUNDS,AXIS,PERIMETER,MEDIAL_AXIS,COMPACTNESS,"),
+                "cache parameter text");
+        check(ResultCache.key(ByteBuffer.allocate(16 * 16), 16, 16, DetectionParameters.builder().build()).fileName()
+                        .equals("3ce97d14de177c707d4ea9bbb35cf4b3-16x16-64b3dd98f507a511.result"),
+                "cache file name");
+
+        Path directory = Files.createTempDirectory("objectdetection-cache");
+        try {
+            ObjectDetector detector = new ObjectDetector();
+            List<String> expected = new ArrayList<>();
+            ResultCache cache = new ResultCache(1, directory, Long.MAX_VALUE);
+            for (int filterSize : new int[]{10, 50, 200}) {
+                DetectionParameters filtered = DetectionParameters.builder().filterSize(filterSize).build();
+                expected.add(describe(cache.detect(detector, gray, image.width, image.height, filtered)));
+            }
+            //a memory tier of 1 byte spills everything but the last result to disk
+            ResultCache reopened = new ResultCache(1, directory, Long.MAX_VALUE);
+            for (int i = 0; i < 2; i++) {
+                DetectionParameters filtered = DetectionParameters.builder().filterSize(new int[]{10, 50}[i]).build();
+                check(expected.get(i).equals(describe(reopened.detect(detector, gray, image.width, image.height, filtered))),
+                        "cache disk round trip " + i);
+            }
+            check(reopened.getDiskHits() == 2 && reopened.getMisses() == 0, "cache disk hits after reopening");
+        } finally {
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+                for (Path file : files) {
+                    Files.delete(file);
+                }
+            }
+            Files.delete(directory);
+        }
+    }
+
+    private static BaselineDetection baseline(Gray image) {
+        return new BaselineDetection(image.pixels, image.width, image.height);
+    }
+
+    //thresholds the image with the detector and compares its foreground with a binary image of 0s and 1s
+    private static boolean sameBinary(ObjectDetector detector, Gray image, DetectionParameters.Builder params, short[] binary) {
+        detector.load(ByteBuffer.wrap(image.pixels), image.width, image.height);
+        detector.threshold(params.build());
+        for (int i = 0; i < binary.length; i++) {
+            if (detector.foreground.get(i % image.width, i / image.width) != (binary[i] == 1)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Every threshold method against a reference on the same image: the applet's simple, mode, iterative, adaptive
+     * and double thresholds (the 8-neighbour hysteresis too, with the same sweep to the fixed point) and Otsu,
+     * Bradley and Sauvola computed pixel by pixel
+     */
+    private void thresholds() throws IOException {
+        ObjectDetector detector = new ObjectDetector();
+        for (Gray image : baselineImages()) {
+            for (int threshold : new int[]{-5, 0, 128, 255}) {
+                BaselineDetection simple = baseline(image);
+                simple.simpleThreshold(threshold, simple.imageArray);
+                check(sameBinary(detector, image, DetectionParameters.builder().threshold(threshold), simple.imageArray),
+                        image.name + ": simple threshold " + threshold);
+            }
+            BaselineDetection mode = baseline(image);
+            mode.modeThreshold();
+            check(sameBinary(detector, image, DetectionParameters.builder().thresholdMethod(ThresholdMethod.MODE), mode.imageArray),
+                    image.name + ": mode threshold");
+            BaselineDetection iterative = baseline(image);
+            iterative.iterativeThreshold(iterative.imageArray);
+            check(sameBinary(detector, image, DetectionParameters.builder().thresholdMethod(ThresholdMethod.ITERATIVE),
+                    iterative.imageArray), image.name + ": iterative threshold");
+            for (int window : new int[]{7, 50, 128}) {
+                BaselineDetection adaptive = baseline(image);
+                adaptive.adaptiveThreshold((short) window);
+                check(sameBinary(detector, image, DetectionParameters.builder().thresholdMethod(ThresholdMethod.ADAPTIVE)
+                        .adaptiveWindow(window), adaptive.imageArray), image.name + ": adaptive threshold " + window);
+            }
+            for (int connectivity : new int[]{4, 8}) {
+                BaselineDetection hysteresis = baseline(image);
+                hysteresis.doubleThreshold(connectivity);
+                check(sameBinary(detector, image, DetectionParameters.builder().thresholdMethod(ThresholdMethod.DOUBLE)
+                        .hysteresisConnectivity(connectivity), hysteresis.imageArray), image.name + ": double threshold " + connectivity);
+            }
+            check(sameBinary(detector, image, DetectionParameters.builder().thresholdMethod(ThresholdMethod.OTSU), otsu(image)),
+                    image.name + ": otsu threshold");
+            check(sameBinary(detector, image, DetectionParameters.builder().thresholdMethod(ThresholdMethod.BRADLEY)
+                    .localWindow(15).bradleySensitivity(0.15), localThreshold(image, 15, 0.15, false)), image.name + ": bradley threshold");
+            check(sameBinary(detector, image, DetectionParameters.builder().thresholdMethod(ThresholdMethod.SAUVOLA)
+                    .localWindow(15).sauvolaK(0.5), localThreshold(image, 15, 0.5, true)), image.name + ": sauvola threshold");
+        }
+    }
+
+    //the first gray level with the largest between-class variance, the classes counted from the pixels at every level
+    private static short[] otsu(Gray image) {
+        double bestVariance = -1;
+        int threshold = 0;
+        for (int t = 0; t < 255; t++) {
+            long below = 0;
+            long sumBelow = 0;
+            long above = 0;
+            long sumAbove = 0;
+            for (byte pixel : image.pixels) {
+                int g = pixel & 0xFF;
+                if (g <= t) {
+                    below++;
+                    sumBelow += g;
+                } else {
+                    above++;
+                    sumAbove += g;
+                }
+            }
+            if (below == 0 || above == 0) {
+                continue;
+            }
+            double meanBelow = sumBelow / (double) below;
+            double meanAbove = sumAbove / (double) above;
+            double variance = (double) below * above * (meanBelow - meanAbove) * (meanBelow - meanAbove);
+            if (variance > bestVariance) {
+                bestVariance = variance;
+                threshold = t;
+            }
+        }
+        short[] binary = new short[image.pixels.length];
+        for (int i = 0; i < binary.length; i++) {
+            binary[i] = (short) ((image.pixels[i] & 0xFF) <= threshold ? 1 : 0);
+        }
+        return binary;
+    }
+
+    //Bradley (or Sauvola) with every window summed pixel by pixel, clipped at the image edges
+    private static short[] localThreshold(Gray image, int window, double parameter, boolean sauvola) {
+        short[] binary = new short[image.pixels.length];
+        int half = window / 2;
+        for (int y = 0; y < image.height; y++) {
+            for (int x = 0; x < image.width; x++) {
+                long sum = 0;
+                long squares = 0;
+                long count = 0;
+                for (int wy = Math.max(0, y - half); wy <= Math.min(image.height - 1, y + half); wy++) {
+                    for (int wx = Math.max(0, x - half); wx <= Math.min(image.width - 1, x + half); wx++) {
+                        int g = image.pixels[wy * image.width + wx] & 0xFF;
+                        sum += g;
+                        squares += g * g;
+                        count++;
+                    }
+                }
+                int g = image.pixels[y * image.width + x] & 0xFF;
+                boolean foreground;
+                if (sauvola) {
+                    double mean = sum / (double) count;
+                    double variance = Math.max(0, squares / (double) count - mean * mean);
+                    foreground = g <= mean * (1 + parameter * (Math.sqrt(variance) / 128 - 1));
+                } else {
+                    foreground = g * count <= sum * (1.0 - parameter);
+                }
+                binary[y * image.width + x] = (short) (foreground ? 1 : 0);
+            }
+        }
+        return binary;
+    }
+
+    /**
+     * Components of the detector against the applet's labeler and calculations on the simple and double threshold of
+     * the same image, paired up by their first pixel (the applet numbered them in another order): the pixels, area,
+     * centroid, bounds, perimeter, compactness, city-block medial axis with its radii and the pixels deSkeletonize
+     * adds must be the same, the moments, which the applet summed in float, the same to within float rounding
+     */
+    private void baselineComponents() throws IOException {
+        for (Gray image : baselineImages()) {
+            for (ThresholdMethod method : new ThresholdMethod[]{ThresholdMethod.SIMPLE, ThresholdMethod.DOUBLE}) {
+                BaselineDetection baseline = baseline(image);
+                if (method == ThresholdMethod.DOUBLE) {
+                    baseline.doubleThreshold(4);
+                } else {
+                    baseline.simpleThreshold(128, baseline.imageArray);
+                }
+                baseline.connectedComponent(5);
+                DetectionResult result = new ObjectDetector().detect(image.pixels, image.width, image.height,
+                        DetectionParameters.builder().thresholdMethod(method).filterSize(5).build());
+                List<BaselineDetection.Component> expected = new ArrayList<>(baseline.listOfItems);
+                //the applet added the pixels in raster order
+                expected.sort(Comparator.comparingInt(cc -> cc.pixels.get(0)));
+                List<ConnectedComponent> found = new ArrayList<>(result.getComponents());
+                found.sort(Comparator.comparingInt(cc -> sorted(cc.pixels.toArray())[0]));
+                boolean same = expected.size() == found.size();
+                boolean moments = same;
+                for (int i = 0; same && i < found.size(); i++) {
+                    BaselineDetection.Component old = expected.get(i);
+                    ConnectedComponent cc = found.get(i);
+                    int[] pixels = new int[old.pixels.size()];
+                    for (int p = 0; p < pixels.length; p++) {
+                        pixels[p] = old.pixels.get(p);
+                    }
+                    int[] perimeter = new int[old.perimeter.size()];
+                    for (int p = 0; p < perimeter.length; p++) {
+                        perimeter[p] = old.perimeter.get(p);
+                    }
+                    old.deSkeletonize(image.width, image.height);
+                    int[] rebuilt = new int[old.pixels.size()];
+                    for (int p = 0; p < rebuilt.length; p++) {
+                        rebuilt[p] = old.pixels.get(p);
+                    }
+                    Map<Integer, Short> axis = new TreeMap<>();
+                    for (int k = 0; k < cc.getSkeletonSize(); k++) {
+                        axis.put(cc.getSkeletonPixel(k), cc.getSkeletonRadius(k));
+                    }
+                    same &= summary(pixels, old.centroidX, old.centroidY, old.top, old.left, old.width, old.height, perimeter,
+                            old.compactness, old.medialAxis, rebuilt).equals(summary(cc.pixels.toArray(), cc.getCentroidX(),
+                            cc.getCentroidY(), cc.getTop(), cc.getLeft(), cc.getWidth(), cc.getHeight(), cc.perimeter.toArray(),
+                            cc.getCompactness(), axis, cc.deSkeletonize(image.width, image.height).pixels.toArray()))
+                            && cc.getArea() == pixels.length;
+                    //each float addition is off by at most 2^-24 of the running sum, which stays below a + c
+                    double bound = cc.getArea() * 0x1p-24 * (cc.getA() + cc.getC()) + 1;
+                    moments &= Math.abs(cc.getA() - old.a) <= bound && Math.abs(cc.getB() - old.b) <= bound
+                            && Math.abs(cc.getC() - old.c) <= bound;
+                }
+                String what = image.name + " " + method;
+                check(same, what + ": components against the applet");
+                check(moments, what + ": moments against the applet");
+            }
+        }
+    }
+
+    private static int[] sorted(int[] values) {
+        Arrays.sort(values);
+        return values;
+    }
+
+    //everything about a component that must match the applet exactly, as text
+    private static String summary(int[] pixels, int centroidX, int centroidY, int top, int left, int width, int height,
+                                  int[] perimeter, double compactness, Map<Integer, Short> axis, int[] rebuilt) {
+        return Arrays.toString(sorted(pixels)) + " " + centroidX + "," + centroidY + " " + top + "," + left + "," + width
+                + "," + height + " " + Arrays.toString(sorted(perimeter)) + " " + compactness + " " + new TreeMap<>(axis)
+                + " " + Arrays.toString(sorted(rebuilt));
+    }
+
+    /**
+     * City-block and Euclidean distance transforms of random shapes in random regions against the distance to the
+     * nearest background pixel found by brute force (outside the region is background), and the reconstruction
+     * against the largest seed radius minus city-block distance at every pixel
+     */
+    private void distanceTransform() {
+        Random random = new Random(5);
+        boolean cityBlock = true;
+        boolean euclidean = true;
+        for (int t = 0; t < 300; t++) {
+            int stride = 1 + random.nextInt(45);
+            int rows = 1 + random.nextInt(45);
+            double density = random.nextDouble();
+            short[] shape = new short[stride * rows];
+            for (int i = 0; i < shape.length; i++) {
+                shape[i] = (short) (random.nextDouble() < density ? 1 : 0);
+            }
+            int x0 = random.nextInt(stride);
+            int x1 = x0 + random.nextInt(stride - x0);
+            int y0 = random.nextInt(rows);
+            int y1 = y0 + random.nextInt(rows - y0);
+            short[] cityBlockDistances = shape.clone();
+            short[] euclideanDistances = shape.clone();
+            DistanceTransform.cityBlock(cityBlockDistances, stride, x0, y0, x1, y1);
+            DistanceTransform.euclidean(euclideanDistances, stride, x0, y0, x1, y1);
+            for (int y = 0; y < rows; y++) {
+                for (int x = 0; x < stride; x++) {
+                    int i = y * stride + x;
+                    //pixels outside the region are left alone
+                    if (shape[i] == 0 || x < x0 || x > x1 || y < y0 || y > y1) {
+                        cityBlock &= cityBlockDistances[i] == shape[i];
+                        euclidean &= euclideanDistances[i] == shape[i];
+                        continue;
+                    }
+                    int nearest = Integer.MAX_VALUE;
+                    long nearestSquared = Long.MAX_VALUE;
+                    for (int by = y0 - 1; by <= y1 + 1; by++) {
+                        for (int bx = x0 - 1; bx <= x1 + 1; bx++) {
+                            if (by < y0 || by > y1 || bx < x0 || bx > x1 || shape[by * stride + bx] == 0) {
+                                nearest = Math.min(nearest, Math.abs(x - bx) + Math.abs(y - by));
+                                nearestSquared = Math.min(nearestSquared, (long) (x - bx) * (x - bx) + (long) (y - by) * (y - by));
+                            }
+                        }
+                    }
+                    cityBlock &= cityBlockDistances[i] == nearest;
+                    euclidean &= euclideanDistances[i] == (short) Math.ceil(Math.sqrt(nearestSquared));
+                }
+            }
+        }
+        check(cityBlock, "city-block distance transform against brute force");
+        check(euclidean, "euclidean distance transform against brute force");
+
+        boolean reconstructed = true;
+        for (int t = 0; t < 300; t++) {
+            int width = 1 + random.nextInt(40);
+            int height = 1 + random.nextInt(40);
+            short[] radii = new short[width * height];
+            int seedCount = 1 + random.nextInt(Math.min(10, radii.length));
+            int[] seeds = new int[seedCount];
+            int maxRadius = 0;
+            for (int s = 0; s < seedCount; s++) {
+                do {
+                    seeds[s] = random.nextInt(radii.length);
+                } while (radii[seeds[s]] != 0);
+                radii[seeds[s]] = (short) (1 + random.nextInt(12));
+                maxRadius = Math.max(maxRadius, radii[seeds[s]]);
+            }
+            short[] expected = new short[radii.length];
+            for (int i = 0; i < expected.length; i++) {
+                for (int seed : seeds) {
+                    int reach = radii[seed] - Math.abs(i % width - seed % width) - Math.abs(i / width - seed / width);
+                    expected[i] = (short) Math.max(expected[i], reach);
+                }
+            }
+            DistanceTransform.reconstruct(radii, width, height, seeds, seedCount, maxRadius);
+            reconstructed &= Arrays.equals(expected, radii);
+        }
+        check(reconstructed, "distance transform reconstruction against brute force");
+    }
+
+    /**
+     * BatchRunner over a directory with the bundled images, a synthetic one in a subdirectory and a file it must skip,
+     * into each sink: the CSV header, every CSV row, JSON line and FeatureStore row against a direct detection of the
+     * image, with all the features and features-only (where the perimeter and compactness are empty, null, -1 or NaN)
+     */
+    private void batchRunner() throws IOException, InterruptedException {
+        Path directory = Files.createTempDirectory("objectdetection-batch");
+        try {
+            Map<String, Gray> images = new TreeMap<>();
+            for (Gray image : bundled()) {
+                Path file = directory.resolve(image.name);
+                Files.copy(BenchmarkImages.get(image.name).file, file);
+                images.put(directory.relativize(file).toString(), image);
+            }
+            Path file = Files.createDirectory(directory.resolve("nested")).resolve("synthetic.img");
+            Files.copy(BenchmarkImages.get("synthetic:512:50:10").file, file);
+            images.put(directory.relativize(file).toString(), gray(BenchmarkImages.get("synthetic:512:50:10")));
+            Files.write(directory.resolve("notes.txt"), new byte[DtImage.HEADER_SIZE + 16]);
+
+            for (boolean featuresOnly : new boolean[]{false, true}) {
+                DetectionParameters params = DetectionParameters.builder().filterSize(20).featuresOnly(featuresOnly).build();
+                Map<String, DetectionResult> expected = new TreeMap<>();
+                Map<String, List<String>> csv = new TreeMap<>();
+                Map<String, List<String>> json = new TreeMap<>();
+                for (Map.Entry<String, Gray> image : images.entrySet()) {
+                    Gray gray = image.getValue();
+                    DetectionResult result = new ObjectDetector().detect(gray.pixels, gray.width, gray.height, params);
+                    expected.put(image.getKey(), result);
+                    csv.put(image.getKey(), new ArrayList<>());
+                    json.put(image.getKey(), new ArrayList<>());
+                    for (ConnectedComponent cc : result.getComponents()) {
+                        double[] row = row(cc);
+                        csv.get(image.getKey()).add(Arrays.toString(row));
+                        //JSON has no infinity, the sink writes null
+                        for (int f = 0; f < row.length; f++) {
+                            row[f] = Double.isInfinite(row[f]) ? Double.NaN : row[f];
+                        }
+                        json.get(image.getKey()).add(Arrays.toString(row));
+                    }
+                }
+                for (String extension : new String[]{"csv", "jsonl", "feat"}) {
+                    String what = "batch runner " + extension + (featuresOnly ? " features only" : "");
+                    Path output = Files.createTempFile("objectdetection-batch", "." + extension);
+                    try {
+                        BatchRunner runner = new BatchRunner(params, 3);
+                        try (ResultSink sink = ResultSink.open(output)) {
+                            runner.run(directory, sink);
+                        }
+                        check(runner.getProcessed() == images.size() && runner.getFailed() == 0, what + ": images processed");
+                        if (extension.equals("feat")) {
+                            checkFeatureStore(FeatureStore.open(output), expected, what);
+                        } else {
+                            List<String> lines = Files.readAllLines(output);
+                            if (extension.equals("csv")) {
+                                check(!lines.isEmpty() && lines.get(0).equals(ResultSink.CSV_HEADER), what + ": header");
+                                lines = lines.subList(Math.min(1, lines.size()), lines.size());
+                            }
+                            check(extension.equals("csv") ? csv.equals(csvRows(lines)) : json.equals(jsonRows(lines)), what + ": rows");
+                        }
+                    } finally {
+                        Files.delete(output);
+                    }
+                }
+            }
+        } finally {
+            try (Stream<Path> files = Files.walk(directory)) {
+                for (Path file : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+                    Files.delete(file);
+                }
+            }
+        }
+    }
+
+    //the values the text sinks write for a component in CSV column order, NaN where they write nothing or null
+    private static double[] row(ConnectedComponent cc) {
+        return new double[]{cc.getArea(), cc.getCentroidX(), cc.getCentroidY(), cc.getTop(), cc.getLeft(),
+                cc.getTop() + cc.getHeight() + 2, cc.getLeft() + cc.getWidth() + 2, cc.getSinTwoTheta(),
+                cc.getCosTwoTheta(), cc.getChiSquaredMin(), cc.getA(), cc.getB(), cc.getC(), cc.getEccentricity(),
+                cc.isCalculated(Feature.PERIMETER) ? cc.getPerimeterSize() : Double.NaN,
+                cc.isCalculated(Feature.COMPACTNESS) ? cc.getCompactness() : Double.NaN};
+    }
+
+    //rows of each image, a row that is out of order or has the wrong component index is left as it is so it fails
+    private static Map<String, List<String>> csvRows(List<String> lines) {
+        Map<String, List<String>> rows = new TreeMap<>();
+        for (String line : lines) {
+            String[] fields = line.split(",", -1);
+            List<String> image = rows.computeIfAbsent(fields[0], name -> new ArrayList<>());
+            double[] values = new double[fields.length - 2];
+            for (int f = 2; f < fields.length; f++) {
+                //the moments are floats, written with the shortest text that reads back as that float
+                boolean moment = f >= 12 && f <= 14;
+                values[f - 2] = fields[f].isEmpty() ? Double.NaN : moment ? Float.parseFloat(fields[f]) : Double.parseDouble(fields[f]);
+            }
+            image.add(Integer.parseInt(fields[1]) == image.size() ? Arrays.toString(values) : line);
+        }
+        return rows;
+    }
+
+    private static Map<String, List<String>> jsonRows(List<String> lines) {
+        Map<String, List<String>> rows = new TreeMap<>();
+        for (String line : lines) {
+            Matcher image = JSON_IMAGE.matcher(line);
+            if (!image.matches()) {
+                rows.put(line, Collections.emptyList());
+                continue;
+            }
+            List<String> components = new ArrayList<>();
+            List<Double> values = new ArrayList<>();
+            Matcher value = JSON_VALUE.matcher(image.group(3));
+            while (value.find()) {
+                //every component starts with its area
+                if (value.group(1).equals("area") && !values.isEmpty()) {
+                    components.add(values.toString());
+                    values.clear();
+                }
+                values.add(value.group(2).equals("null") ? Double.NaN : Double.parseDouble(value.group(2)));
+            }
+            if (!values.isEmpty()) {
+                components.add(values.toString());
+            }
+            rows.put(image.group(1), Integer.parseInt(image.group(2)) == components.size() ? components
+                    : Collections.singletonList(line));
+        }
+        return rows;
+    }
+
+    private void checkFeatureStore(FeatureStore store, Map<String, DetectionResult> expected, String what) {
+        boolean same = store.getImageCount() == expected.size();
+        long components = 0;
+        for (int image = 0; same && image < store.getImageCount(); image++) {
+            DetectionResult result = expected.get(store.getImageName(image));
+            same = result != null && store.getImageRows(image) == result.getItemCount();
+            for (int i = 0; same && i < result.getItemCount(); i++) {
+                ConnectedComponent cc = result.getComponents().get(i);
+                int row = (int) store.getImageStart(image) + i;
+                same = store.getInt(FeatureStore.Column.IMAGE, row) == image
+                        && store.getInt(FeatureStore.Column.LABEL, row) == cc.getLabel()
+                        && store.getInt(FeatureStore.Column.AREA, row) == cc.getArea()
+                        && store.getInt(FeatureStore.Column.CENTROID_X, row) == cc.getCentroidX()
+                        && store.getInt(FeatureStore.Column.CENTROID_Y, row) == cc.getCentroidY()
+                        && store.getInt(FeatureStore.Column.TOP, row) == cc.getTop()
+                        && store.getInt(FeatureStore.Column.LEFT, row) == cc.getLeft()
+                        && store.getInt(FeatureStore.Column.WIDTH, row) == cc.getWidth()
+                        && store.getInt(FeatureStore.Column.HEIGHT, row) == cc.getHeight()
+                        && Float.compare(store.getFloat(FeatureStore.Column.A, row), cc.getA()) == 0
+                        && Float.compare(store.getFloat(FeatureStore.Column.B, row), cc.getB()) == 0
+                        && Float.compare(store.getFloat(FeatureStore.Column.C, row), cc.getC()) == 0
+                        && Double.compare(store.getDouble(FeatureStore.Column.ECCENTRICITY, row), cc.getEccentricity()) == 0
+                        && store.getInt(FeatureStore.Column.PERIMETER, row) == (cc.isCalculated(Feature.PERIMETER) ? cc.getPerimeterSize() : -1)
+                        && Double.compare(store.getDouble(FeatureStore.Column.COMPACTNESS, row),
+                        cc.isCalculated(Feature.COMPACTNESS) ? cc.getCompactness() : Double.NaN) == 0;
+            }
+            components += store.getImageRows(image);
+        }
+        check(same && components == store.getComponentCount(), what + ": feature store rows");
+    }
+}
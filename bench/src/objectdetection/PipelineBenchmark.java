@@ -0,0 +1,311 @@
+package objectdetection;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author Andrew King
+ *         JMH benchmarks for every stage of the pipeline, each stage timed on its own from the state the stage before
+ *         it leaves (loading, thresholding, labeling, size filter, calculations, skeletons and rendering).
+ *         Run from the project directory with the results written as JSON, for example
+ *         java -cp <classpath> org.openjdk.jmh.Main objectdetection.PipelineBenchmark -rf json -rff bench/results.json
+ *         then compare them with the stored baseline through BaselineComparator
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(value = 2, jvmArgsAppend = {"-Xms6g", "-Xmx6g"})
+public class PipelineBenchmark {
+
+    /**
+     * The image every benchmark runs on and the filter size of the runs that filter
+     */
+    @State(Scope.Thread)
+    public static class Input {
+
+        @Param({"comb.img", "test1.img", "test2.img", "test3.img",
+                "synthetic:512:50:10", "synthetic:2048:400:10", "synthetic:8192:3000:10"})
+        public String image;
+
+        @Param({"100"})
+        public int filterSize;
+
+        BenchmarkImages.Image data;
+
+        @Setup(Level.Trial)
+        public void setUp() throws IOException {
+            data = BenchmarkImages.get(image);
+        }
+
+        ByteBuffer gray() { return ByteBuffer.wrap(data.gray); }
+
+        DetectionParameters.Builder parameters() { return DetectionParameters.builder().filterSize(filterSize); }
+
+        //loads and thresholds the image, returning the words of the binary image so it can be restored before every
+        //labeling (the size filter clears the bits of the components it drops)
+        long[] binary(ObjectDetector detector) {
+            detector.load(gray(), data.width, data.height);
+            detector.threshold(parameters().build());
+            return detector.foreground.words.clone();
+        }
+
+        //restores the binary image and labels it without running the calculations
+        void relabel(ObjectDetector detector, long[] binary, DetectionParameters params) {
+            detector.load(gray(), data.width, data.height);
+            System.arraycopy(binary, 0, detector.foreground.words, 0, binary.length);
+            detector.label(params);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Thresholding {
+
+        @Param({"SIMPLE", "MODE", "ITERATIVE", "ADAPTIVE", "DOUBLE", "OTSU", "BRADLEY", "SAUVOLA"})
+        public ThresholdMethod method;
+
+        ObjectDetector detector = new ObjectDetector();
+        DetectionParameters params;
+
+        @Setup(Level.Trial)
+        public void setUp(Input input) {
+            params = input.parameters().thresholdMethod(method).build();
+        }
+    }
+
+    /**
+     * A thresholded image restored before every invocation, labeled without the calculations
+     */
+    @State(Scope.Thread)
+    public static class Binary {
+
+        @Param({"PIXELS", "STRIPES", "RUNS"})
+        public String labeler;
+
+        ObjectDetector detector = new ObjectDetector();
+        long[] binary;
+        DetectionParameters params;
+
+        @Setup(Level.Trial)
+        public void setUp(Input input) {
+            binary = input.binary(detector);
+            detector.calculate = false;
+            //no filtering, the size filter has its own benchmark
+            DetectionParameters.Builder builder = input.parameters().filterSize(0);
+            if (labeler.equals("STRIPES")) {
+                builder.labelingStripes(Runtime.getRuntime().availableProcessors());
+            } else if (labeler.equals("RUNS")) {
+                builder.runLengthLabeling(true);
+            }
+            params = builder.build();
+        }
+
+        @Setup(Level.Invocation)
+        public void restore(Input input) {
+            detector.load(input.gray(), input.data.width, input.data.height);
+            System.arraycopy(binary, 0, detector.foreground.words, 0, binary.length);
+        }
+    }
+
+    /**
+     * Components labeled before every invocation without filtering, the input of the size filter
+     */
+    @State(Scope.Thread)
+    public static class Unfiltered {
+
+        ObjectDetector detector = new ObjectDetector();
+        long[] binary;
+        DetectionParameters params;
+
+        @Setup(Level.Trial)
+        public void setUp(Input input) {
+            binary = input.binary(detector);
+            detector.calculate = false;
+            params = input.parameters().filterSize(0).build();
+        }
+
+        @Setup(Level.Invocation)
+        public void relabel(Input input) {
+            input.relabel(detector, binary, params);
+        }
+    }
+
+    /**
+     * Components labeled and filtered before every invocation, the input of the calculations
+     */
+    @State(Scope.Thread)
+    public static class Filtered {
+
+        //the metrics the calculations compute, ALL or a comma separated list of Feature names
+        @Param({"ALL", "BOUNDS,AXIS"})
+        public String features;
+
+        ObjectDetector detector = new ObjectDetector();
+        long[] binary;
+        DetectionParameters params;
+
+        @Setup(Level.Trial)
+        public void setUp(Input input) {
+            binary = input.binary(detector);
+            detector.calculate = false;
+            DetectionParameters.Builder builder = input.parameters();
+            if (!features.equals("ALL")) {
+                EnumSet<Feature> selected = EnumSet.noneOf(Feature.class);
+                for (String name : features.split(",")) {
+                    selected.add(Feature.valueOf(name));
+                }
+                builder.features(selected);
+            }
+            params = builder.build();
+        }
+
+        @Setup(Level.Invocation)
+        public void relabel(Input input) {
+            input.relabel(detector, binary, params);
+        }
+    }
+
+    /**
+     * A full detection with every metric computed, the skeletons are built from its components without changing them
+     */
+    @State(Scope.Thread)
+    public static class Detected {
+
+        ObjectDetector detector = new ObjectDetector();
+        DetectionResult result;
+
+        @Setup(Level.Trial)
+        public void detect(Input input) {
+            result = detector.detect(input.gray(), input.data.width, input.data.height, input.parameters().build());
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Rendering {
+
+        DetectionResult result;
+        int[] argb;
+
+        @Setup(Level.Trial)
+        public void setUp(Input input) {
+            result = new ObjectDetector().detect(input.gray(), input.data.width, input.data.height, input.parameters().build());
+            argb = new int[input.data.width * input.data.height];
+        }
+    }
+
+    /**
+     * An index over a detection and a thousand seeded regions of up to 64 pixels square to look up in it
+     */
+    @State(Scope.Thread)
+    public static class Querying {
+
+        ComponentIndex index;
+        int[] regions = new int[4 * 1000];
+        IntList matches = new IntList();
+        int[] resultStart = new int[1000 + 1];
+
+        @Setup(Level.Trial)
+        public void setUp(Input input) {
+            index = new ObjectDetector().detect(input.gray(), input.data.width, input.data.height,
+                    input.parameters().build()).getIndex();
+            Random random = new Random(42);
+            for (int r = 0; r < regions.length; r += 4) {
+                regions[r] = random.nextInt(input.data.width);
+                regions[r + 1] = random.nextInt(input.data.height);
+                regions[r + 2] = regions[r] + random.nextInt(64);
+                regions[r + 3] = regions[r + 1] + random.nextInt(64);
+            }
+        }
+    }
+
+    /**
+     * Maps the file and reads one byte of every page so the read is timed and not just the mapping
+     */
+    @Benchmark
+    public long loadImageData(Input input) throws IOException {
+        DtImage image = DtImage.open(input.data.file);
+        ByteBuffer pixels = image.getPixels();
+        long sum = 0;
+        for (int i = 0; i < pixels.limit(); i += 4096) {
+            sum += pixels.get(i);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public BitImage threshold(Input input, Thresholding state) {
+        //loading only slices the buffer, it is here so every invocation starts without a cached histogram
+        state.detector.load(input.gray(), input.data.width, input.data.height);
+        state.detector.threshold(state.params);
+        return state.detector.foreground;
+    }
+
+    /**
+     * First pass, collapseLabels and createComponents
+     */
+    @Benchmark
+    public List<ConnectedComponent> label(Binary state) {
+        state.detector.label(state.params);
+        return state.detector.listOfItems;
+    }
+
+    @Benchmark
+    public int componentSizeFilter(Input input, Unfiltered state) {
+        state.detector.componentSizeFilter(input.filterSize);
+        return state.detector.itemCount;
+    }
+
+    @Benchmark
+    public List<ConnectedComponent> runCalculations(Filtered state) {
+        state.detector.runCalculations();
+        return state.detector.listOfItems;
+    }
+
+    @Benchmark
+    public long skeletonize(Input input, Detected state) {
+        long area = 0;
+        for (ConnectedComponent cc : state.result.getComponents()) {
+            area += cc.skeletonize().deSkeletonize(input.data.width, input.data.height).getArea();
+        }
+        return area;
+    }
+
+    @Benchmark
+    public int queryRegions(Querying state) {
+        state.matches.clear();
+        state.index.queryAll(state.regions, state.matches, state.resultStart);
+        return state.matches.size();
+    }
+
+    /**
+     * Builds the component tree and reads the component count of every threshold from it, the same sweep as 256
+     * threshold and label runs
+     */
+    @Benchmark
+    public int[] sweepThresholds(Input input) {
+        return ComponentTree.build(input.gray(), input.data.width, input.data.height).countsByThreshold(input.filterSize);
+    }
+
+    @Benchmark
+    public int[] render(Rendering state) {
+        LabelRenderer.render(state.result, state.argb, false, true, true);
+        return state.argb;
+    }
+}
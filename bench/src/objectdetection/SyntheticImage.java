@@ -0,0 +1,83 @@
+package objectdetection;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * @author Andrew King
+ *         Generates reproducible benchmark images: dark ellipses of random size and orientation on a light background
+ *         with optional Gaussian noise. The same arguments and seed always give the same pixels
+ */
+public final class SyntheticImage {
+
+    public static final int BACKGROUND = 220;
+    public static final int OBJECT = 40;
+
+    private SyntheticImage() {
+    }
+
+    /**
+     * Gray scale pixels of a width x height image holding the given number of objects, noise is the standard deviation
+     * of the Gaussian noise added to every pixel (0 for none)
+     */
+    public static byte[] generate(int width, int height, int objects, double noise, long seed) {
+        Random random = new Random(seed);
+        byte[] gray = new byte[width * height];
+        Arrays.fill(gray, (byte) BACKGROUND);
+        //size the objects so that they cover a similar share of the image whatever their number
+        int maxRadius = Math.max(4, (int) (0.35 * Math.min(width, height) / Math.sqrt(Math.max(1, objects))));
+        int minRadius = Math.max(2, maxRadius / 3);
+        for (int n = 0; n < objects; n++) {
+            double cx = random.nextDouble() * width;
+            double cy = random.nextDouble() * height;
+            double major = minRadius + random.nextDouble() * (maxRadius - minRadius);
+            double minor = major * (0.4 + 0.6 * random.nextDouble());
+            double angle = random.nextDouble() * Math.PI;
+            double cos = Math.cos(angle);
+            double sin = Math.sin(angle);
+            int x0 = Math.max(0, (int) Math.floor(cx - major));
+            int x1 = Math.min(width - 1, (int) Math.ceil(cx + major));
+            int y0 = Math.max(0, (int) Math.floor(cy - major));
+            int y1 = Math.min(height - 1, (int) Math.ceil(cy + major));
+            for (int y = y0; y <= y1; y++) {
+                for (int x = x0; x <= x1; x++) {
+                    double dx = x - cx;
+                    double dy = y - cy;
+                    double u = (dx * cos + dy * sin) / major;
+                    double v = (dy * cos - dx * sin) / minor;
+                    if (u * u + v * v <= 1) {
+                        gray[y * width + x] = (byte) OBJECT;
+                    }
+                }
+            }
+        }
+        if (noise > 0) {
+            for (int i = 0; i < gray.length; i++) {
+                long value = (gray[i] & 0xFF) + Math.round(random.nextGaussian() * noise);
+                gray[i] = (byte) Math.max(0, Math.min(255, value));
+            }
+        }
+        return gray;
+    }
+
+    /**
+     * Writes the pixels as a DT-IMAGE file that DtImage can read back
+     */
+    public static void write(Path file, byte[] gray, int width, int height) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(DtImage.HEADER_SIZE).order(ByteOrder.BIG_ENDIAN);
+        for (int i = 0; i < DtImage.MAGIC.length(); i++) {
+            header.put(i, (byte) DtImage.MAGIC.charAt(i));
+        }
+        header.putShort(DtImage.ROWS_OFFSET, (short) height);
+        header.putShort(DtImage.COLUMNS_OFFSET, (short) width);
+        byte[] contents = new byte[DtImage.HEADER_SIZE + width * height];
+        header.get(0, contents, 0, DtImage.HEADER_SIZE);
+        System.arraycopy(gray, 0, contents, DtImage.HEADER_SIZE, width * height);
+        Files.write(file, contents);
+    }
+}
@@ -0,0 +1,55 @@
+package objectdetection;
+
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * @author Andrew King
+ *         SIMD versions of the pixel kernels on the jdk.incubator.vector API (compile and run with
+ *         --add-modules jdk.incubator.vector). Only loaded by PixelKernels.get() when the module is present.
+ *         The threshold compares a vector of pixels at a time and ors the compare masks into the words of the bit image.
+ *         Buffers without a backing array (direct or read-only) are loaded with fromByteBuffer, the rest with fromArray.
+ *         The histogram stays the multi-lane scalar one, scattered increments do not vectorize
+ */
+public final class VectorKernels extends ScalarKernels {
+
+    private static final VectorSpecies<Byte> BYTES = ByteVector.SPECIES_PREFERRED;
+
+    @Override
+    public void threshold(ByteBuffer gray, int offset, int width, int threshold, long[] words, int wordOffset) {
+        if (threshold < 0 || threshold >= 255) {
+            super.threshold(gray, offset, width, threshold, words, wordOffset);
+            return;
+        }
+        //flipping the sign bit turns the unsigned comparison into a signed one
+        byte limit = (byte) (threshold ^ 0x80);
+        byte[] src = gray.hasArray() ? gray.array() : null;
+        int base = gray.hasArray() ? gray.arrayOffset() + offset : 0;
+        int lanes = BYTES.length();
+        for (int x0 = 0, k = wordOffset; x0 < width; x0 += 64, k++) {
+            int x1 = Math.min(width, x0 + 64);
+            long word = 0;
+            int x = x0;
+            //each compare mask is one bit per lane, lanes divides 64 so the masks tile the word
+            for (; x + lanes <= x1; x += lanes) {
+                ByteVector pixels = src != null ? ByteVector.fromArray(BYTES, src, base + x)
+                        : ByteVector.fromByteBuffer(BYTES, gray, offset + x, ByteOrder.nativeOrder());
+                long mask = pixels.lanewise(VectorOperators.XOR, (byte) 0x80).compare(VectorOperators.LE, limit).toLong();
+                word |= mask << (x - x0);
+            }
+            for (; x < x1; x++) {
+                if ((gray.get(offset + x) & 0xFF) <= threshold) {
+                    word |= 1L << (x - x0);
+                }
+            }
+            words[k] = word;
+        }
+    }
+
+    @Override
+    public String getName() { return "vector " + BYTES.vectorBitSize() + " bit"; }
+}
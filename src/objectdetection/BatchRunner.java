@@ -0,0 +1,124 @@
+package objectdetection;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Iterator;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+/**
+ * @author Andrew King
+ *         Runs the detector over every .img file under a directory on a bounded work-stealing pool and streams the
+ *         component features of each image to a ResultSink as soon as it is done. Every worker keeps its own
+ *         ObjectDetector (and so its own buffers) and only a fixed number of images are in flight at once, so
+ *         memory stays flat however many files the directory holds
+ */
+public class BatchRunner {
+
+    private final DetectionParameters params;
+    private final int threads;
+    //how many images may be queued or running before the directory walk waits
+    private final int maxInFlight;
+    //shared by the detectors of every worker, null for none
+    private DetectionMetrics metrics;
+    //duplicate images are served from here when set, null for none
+    private ResultCache cache;
+
+    private final AtomicInteger processed = new AtomicInteger();
+    private final AtomicInteger failed = new AtomicInteger();
+
+    public BatchRunner(DetectionParameters params, int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("Need at least one thread but got " + threads);
+        }
+        this.params = params;
+        this.threads = threads;
+        this.maxInFlight = threads * 2;
+    }
+
+    /**
+     * Sets the metrics every worker's detector reports to, must be thread safe (like MetricsRecorder)
+     */
+    public void setMetrics(DetectionMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Sets the cache the workers look images up in before detecting them, so repeated frames are not processed twice
+     */
+    public void setCache(ResultCache cache) {
+        this.cache = cache;
+    }
+
+    /**
+     * Processes every .img file under the directory, returns once all of them have been written to the sink
+     */
+    public void run(Path directory, ResultSink sink) throws IOException, InterruptedException {
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        ThreadLocal<ObjectDetector> detectors = ThreadLocal.withInitial(() -> {
+            ObjectDetector detector = new ObjectDetector();
+            detector.setMetrics(metrics);
+            return detector;
+        });
+        Semaphore inFlight = new Semaphore(maxInFlight);
+        try (Stream<Path> files = Files.walk(directory)) {
+            Iterator<Path> iter = files.filter(file -> file.toString().endsWith(".img") && Files.isRegularFile(file)).iterator();
+            while (iter.hasNext()) {
+                Path file = iter.next();
+                //backpressure: wait for a slot before handing out more work
+                inFlight.acquire();
+                pool.execute(() -> {
+                    try {
+                        DtImage image = DtImage.open(file);
+                        DetectionResult result = cache == null ? detectors.get().detect(image, params)
+                                : cache.detect(detectors.get(), image, params);
+                        sink.write(directory.relativize(file).toString(), result);
+                        processed.incrementAndGet();
+                    } catch (IOException | RuntimeException e) {
+                        failed.incrementAndGet();
+                        System.err.println("Error! Could not process " + file + ": " + e);
+                    } finally {
+                        inFlight.release();
+                    }
+                });
+            }
+            //wait for the last images to finish
+            inFlight.acquire(maxInFlight);
+            inFlight.release(maxInFlight);
+        } finally {
+            pool.shutdown();
+        }
+        sink.flush();
+    }
+
+    public int getProcessed() { return processed.get(); }
+
+    public int getFailed() { return failed.get(); }
+
+    /**
+     * Arg 1: directory -- Arg 2: output file (.csv, .jsonl or .feat) -- Arg 3: threads (optional) -- Arg 4: filter size (optional)
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length < 2) {
+            System.err.println("usage: BatchRunner <directory> <output.csv|output.jsonl|output.feat> [threads] [filter size]");
+            System.exit(1);
+        }
+        int threads = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+        DetectionParameters.Builder params = DetectionParameters.builder();
+        if (args.length > 3) {
+            params.filterSize(Integer.parseInt(args[3]));
+        }
+        BatchRunner runner = new BatchRunner(params.build(), threads);
+        MetricsRecorder metrics = new MetricsRecorder();
+        runner.setMetrics(metrics);
+        try (ResultSink sink = ResultSink.open(Paths.get(args[1]))) {
+            runner.run(Paths.get(args[0]), sink);
+        }
+        System.out.println("processed: " + runner.getProcessed() + " failed: " + runner.getFailed());
+        System.out.print(metrics);
+    }
+}
@@ -0,0 +1,232 @@
+package objectdetection;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * @author Andrew King
+ *         Bit-packed binary image, one bit per pixel with every row padded to whole 64 bit words (padding bits are
+ *         always 0). Whole words can be tested and combined at once, which is how the boundary of the foreground and
+ *         the runs of the run-length labeler are found 64 pixels at a time. It is the binary image of ObjectDetector,
+ *         the thresholds write straight into it. The word array is reused when rebuilt
+ */
+public class BitImage {
+
+    int width, height;
+    int wordsPerRow;
+    //bit (x & 63) of words[y * wordsPerRow + (x >>> 6)] is pixel (x, y)
+    long[] words = new long[0];
+
+    /**
+     * Thresholds a gray scale image stored row by row (read from absolute index 0), the pixels whose unsigned gray
+     * value is <= threshold are foreground
+     */
+    public void threshold(ByteBuffer gray, int width, int height, int threshold) {
+        resize(width, height);
+        PixelKernels kernels = PixelKernels.get();
+        for (int y = 0; y < height; y++) {
+            kernels.threshold(gray, y * width, width, threshold, words, y * wordsPerRow);
+        }
+    }
+
+    /**
+     * Sizes the image and sets every pixel to background
+     */
+    public void resize(int width, int height) {
+        this.width = width;
+        this.height = height;
+        wordsPerRow = (width + 63) >>> 6;
+        int size = wordsPerRow * height;
+        if (words.length < size) {
+            words = new long[size];
+        } else {
+            Arrays.fill(words, 0, size, 0L);
+        }
+    }
+
+    public boolean get(int x, int y) {
+        return (words[y * wordsPerRow + (x >>> 6)] & (1L << x)) != 0;
+    }
+
+    public void set(int x, int y) {
+        words[y * wordsPerRow + (x >>> 6)] |= 1L << x;
+    }
+
+    public void clear(int x, int y) {
+        words[y * wordsPerRow + (x >>> 6)] &= ~(1L << x);
+    }
+
+    /**
+     * Clears every foreground pixel that is also foreground in other, which must have the same size
+     */
+    public void andNot(BitImage other) {
+        for (int i = 0; i < wordsPerRow * height; i++) {
+            words[i] &= ~other.words[i];
+        }
+    }
+
+    /**
+     * Clears the pixel with the row-major index of the full image
+     */
+    public void clear(int pixel) {
+        clear(pixel % width, pixel / width);
+    }
+
+    /**
+     * Writes into out every foreground pixel that has a 4-neighbour in the background, one word at a time:
+     * a pixel stays set unless its north, south, west and east words all have it set too. Like calcPerimeter the
+     * pixels on the edges of the image are never part of the boundary
+     */
+    public void boundary(BitImage out) {
+        out.resize(width, height);
+        //columns 0 and width - 1 are left out of every word
+        long[] columnMask = new long[wordsPerRow];
+        for (int k = 0; k < wordsPerRow; k++) {
+            int valid = Math.min(64, width - (k << 6));
+            columnMask[k] = valid == 64 ? -1L : (1L << valid) - 1;
+        }
+        columnMask[0] &= ~1L;
+        columnMask[(width - 1) >>> 6] &= ~(1L << (width - 1));
+        for (int y = 1; y < height - 1; y++) {
+            int row = y * wordsPerRow;
+            for (int k = 0; k < wordsPerRow; k++) {
+                long center = words[row + k];
+                if (center == 0) {
+                    continue;
+                }
+                //bit x of west is pixel x - 1 and of east is pixel x + 1, borrowing the edge bit of the next word
+                long west = (center << 1) | (k > 0 ? words[row + k - 1] >>> 63 : 0);
+                long east = (center >>> 1) | (k < wordsPerRow - 1 ? words[row + k + 1] << 63 : 0);
+                long north = words[row - wordsPerRow + k];
+                long south = words[row + wordsPerRow + k];
+                out.words[row + k] = center & ~(north & south & west & east) & columnMask[k];
+            }
+        }
+    }
+
+    /**
+     * Moves every pixel of candidates that has a 4 or 8-neighbour in this image into this image, a word at a time.
+     * Pixels moved in count as neighbours for the rest of the pass, so one pass already floods everything reachable
+     * down and to the right, which only moves pixels a flood fill from this image would reach anyway
+     */
+    public void grow(BitImage candidates, int connectivity) {
+        for (int y = 0; y < height; y++) {
+            int row = y * wordsPerRow;
+            for (int k = 0; k < wordsPerRow; k++) {
+                long open = candidates.words[row + k];
+                if (open != 0) {
+                    long moved = open & neighbourhood(y, k, connectivity);
+                    words[row + k] |= moved;
+                    candidates.words[row + k] &= ~moved;
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes into queue the row-major indexes of the pixels of this image that have a 4 or 8-neighbour in other, which
+     * must have the same size, returns how many there are
+     */
+    public int touching(BitImage other, int connectivity, int[] queue) {
+        int count = 0;
+        for (int y = 0; y < height; y++) {
+            int row = y * wordsPerRow;
+            for (int k = 0; k < wordsPerRow; k++) {
+                long own = words[row + k];
+                if (own == 0) {
+                    continue;
+                }
+                for (long hits = own & other.neighbourhood(y, k, connectivity); hits != 0; hits &= hits - 1) {
+                    queue[count++] = y * width + (k << 6) + Long.numberOfTrailingZeros(hits);
+                }
+            }
+        }
+        return count;
+    }
+
+    //bit x is set when pixel x of word k on row y has a 4 or 8-neighbour that is set
+    private long neighbourhood(int y, int k, int connectivity) {
+        int row = y * wordsPerRow;
+        long north = y > 0 ? words[row - wordsPerRow + k] : 0;
+        long south = y < height - 1 ? words[row + wordsPerRow + k] : 0;
+        long center = words[row + k];
+        long west = k > 0 ? words[row + k - 1] : 0;
+        long east = k < wordsPerRow - 1 ? words[row + k + 1] : 0;
+        //with 8 neighbours the diagonals come from shifting the rows above and below too
+        if (connectivity == 8) {
+            center |= north | south;
+            if (y > 0) {
+                west |= k > 0 ? words[row - wordsPerRow + k - 1] : 0;
+                east |= k < wordsPerRow - 1 ? words[row - wordsPerRow + k + 1] : 0;
+            }
+            if (y < height - 1) {
+                west |= k > 0 ? words[row + wordsPerRow + k - 1] : 0;
+                east |= k < wordsPerRow - 1 ? words[row + wordsPerRow + k + 1] : 0;
+            }
+        }
+        //bit x of the west shift is pixel x - 1 and of the east shift pixel x + 1, borrowing the edge bit of the next word
+        return north | south | (center << 1) | (west >>> 63) | (center >>> 1) | (east << 63);
+    }
+
+    /**
+     * Row-major index of the first foreground pixel at or after the given index, or -1 if there is none
+     */
+    public int nextSetBit(int pixel) {
+        if (pixel >= width * height) {
+            return -1;
+        }
+        int w = (pixel / width) * wordsPerRow + ((pixel % width) >>> 6);
+        long word = words[w] & (-1L << pixel % width);
+        int size = wordsPerRow * height;
+        while (word == 0) {
+            if (++w == size) {
+                return -1;
+            }
+            word = words[w];
+        }
+        return (w / wordsPerRow) * width + ((w % wordsPerRow) << 6) + Long.numberOfTrailingZeros(word);
+    }
+
+    /**
+     * First x at or after the given x on row y that is foreground, or width if there is none
+     */
+    public int nextSetInRow(int y, int x) {
+        return nextInRow(y, x, 0L);
+    }
+
+    /**
+     * First x at or after the given x on row y that is background, or width if there is none
+     */
+    public int nextClearInRow(int y, int x) {
+        return nextInRow(y, x, -1L);
+    }
+
+    //flip turns the search for a clear bit into the search for a set bit
+    private int nextInRow(int y, int x, long flip) {
+        if (x >= width) {
+            return width;
+        }
+        int row = y * wordsPerRow;
+        int k = x >>> 6;
+        long word = (words[row + k] ^ flip) & (-1L << x);
+        while (word == 0) {
+            if (++k == wordsPerRow) {
+                return width;
+            }
+            word = words[row + k] ^ flip;
+        }
+        return Math.min(width, (k << 6) + Long.numberOfTrailingZeros(word));
+    }
+
+    public long cardinality() {
+        long count = 0;
+        for (int i = 0; i < wordsPerRow * height; i++) {
+            count += Long.bitCount(words[i]);
+        }
+        return count;
+    }
+
+    public int getWidth() { return width; }
+
+    public int getHeight() { return height; }
+}
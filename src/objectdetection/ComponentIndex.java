@@ -0,0 +1,169 @@
+package objectdetection;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * @author Andrew King
+ *         Spatial index over the components of a detection result: a uniform grid of square cells, each listing the
+ *         components whose bounding box overlaps it (stored as one flat array with an offset per cell), for region
+ *         queries, and a label to component table over the label image for O(1) point lookups.
+ *         A region query only visits the cells it covers and reports every component once, from the cell holding the
+ *         top left corner of the overlap, so queries need no scratch state and can run on several threads at once.
+ *         Regions are inclusive pixel rectangles and match a component when they overlap its bounding box
+ */
+public final class ComponentIndex {
+
+    private final DetectionResult result;
+    private final List<ConnectedComponent> components;
+    //bounding box of each component in pixels (inclusive, clamped to the image)
+    private final int[] minX, minY, maxX, maxY;
+    //index of the component with each label, -1 for labels without one
+    private final int[] byLabel;
+    //cells are (1 << cellShift) pixels square
+    private final int cellShift;
+    private final int columns, rows;
+    //components of cell c are cellItems[cellStart[c]] to cellItems[cellStart[c + 1] - 1]
+    private final int[] cellStart;
+    private final int[] cellItems;
+
+    ComponentIndex(DetectionResult result) {
+        this.result = result;
+        components = result.getComponents();
+        int count = components.size();
+        int width = result.getWidth();
+        int height = result.getHeight();
+        minX = new int[count];
+        minY = new int[count];
+        maxX = new int[count];
+        maxY = new int[count];
+        int maxLabel = 1;
+        long boxSides = 0;
+        for (int i = 0; i < count; i++) {
+            ConnectedComponent cc = components.get(i);
+            //the bounding box sits one pixel outside the component on the top and left
+            minX[i] = Math.max(0, cc.getLeft() + 1);
+            minY[i] = Math.max(0, cc.getTop() + 1);
+            maxX[i] = Math.min(width - 1, cc.getLeft() + cc.getWidth());
+            maxY[i] = Math.min(height - 1, cc.getTop() + cc.getHeight());
+            boxSides += Math.max(cc.getWidth(), cc.getHeight());
+            maxLabel = Math.max(maxLabel, cc.getLabel());
+        }
+        byLabel = new int[maxLabel + 1];
+        Arrays.fill(byLabel, -1);
+        for (int i = 0; i < count; i++) {
+            byLabel[components.get(i).getLabel()] = i;
+        }
+        //cells about the size of an average component (at least 16 pixels) so each is listed in a few cells
+        int side = count == 0 ? 16 : (int) Math.max(16, boxSides / count);
+        cellShift = 32 - Integer.numberOfLeadingZeros(side - 1);
+        columns = Math.max(1, (width + (1 << cellShift) - 1) >> cellShift);
+        rows = Math.max(1, (height + (1 << cellShift) - 1) >> cellShift);
+        //count then fill, like a counting sort
+        cellStart = new int[columns * rows + 1];
+        for (int i = 0; i < count; i++) {
+            for (int cy = minY[i] >> cellShift; cy <= maxY[i] >> cellShift; cy++) {
+                for (int cx = minX[i] >> cellShift; cx <= maxX[i] >> cellShift; cx++) {
+                    cellStart[cy * columns + cx + 1]++;
+                }
+            }
+        }
+        for (int c = 0; c < columns * rows; c++) {
+            cellStart[c + 1] += cellStart[c];
+        }
+        cellItems = new int[cellStart[columns * rows]];
+        int[] fill = new int[columns * rows];
+        for (int i = 0; i < count; i++) {
+            for (int cy = minY[i] >> cellShift; cy <= maxY[i] >> cellShift; cy++) {
+                for (int cx = minX[i] >> cellShift; cx <= maxX[i] >> cellShift; cx++) {
+                    int cell = cy * columns + cx;
+                    cellItems[cellStart[cell] + fill[cell]++] = i;
+                }
+            }
+        }
+    }
+
+    /**
+     * Index in the result's component list of the component covering the pixel, -1 for background
+     */
+    public int indexAt(int x, int y) {
+        int label = result.getLabel(x, y);
+        return label > 1 && label < byLabel.length ? byLabel[label] : -1;
+    }
+
+    /**
+     * The component covering the pixel or null for background
+     */
+    public ConnectedComponent componentAt(int x, int y) {
+        int index = indexAt(x, y);
+        return index < 0 ? null : components.get(index);
+    }
+
+    /**
+     * Batch point lookup: out[i] = indexAt(xs[i], ys[i])
+     */
+    public void indexesAt(int[] xs, int[] ys, int[] out) {
+        for (int i = 0; i < out.length; i++) {
+            out[i] = indexAt(xs[i], ys[i]);
+        }
+    }
+
+    /**
+     * Adds to out the index of every component whose bounding box overlaps [x0, x1] x [y0, y1] (inclusive),
+     * in no particular order
+     */
+    public void query(int x0, int y0, int x1, int y1, IntList out) {
+        x0 = Math.max(x0, 0);
+        y0 = Math.max(y0, 0);
+        x1 = Math.min(x1, result.getWidth() - 1);
+        y1 = Math.min(y1, result.getHeight() - 1);
+        if (x0 > x1 || y0 > y1) {
+            return;
+        }
+        for (int cy = y0 >> cellShift; cy <= y1 >> cellShift; cy++) {
+            for (int cx = x0 >> cellShift; cx <= x1 >> cellShift; cx++) {
+                int cell = cy * columns + cx;
+                for (int k = cellStart[cell]; k < cellStart[cell + 1]; k++) {
+                    int i = cellItems[k];
+                    if (minX[i] > x1 || maxX[i] < x0 || minY[i] > y1 || maxY[i] < y0) {
+                        continue;
+                    }
+                    //report it from the cell of the top left corner of the overlap only
+                    if (Math.max(minX[i], x0) >> cellShift == cx && Math.max(minY[i], y0) >> cellShift == cy) {
+                        out.add(i);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * The components whose bounding box overlaps [x0, x1] x [y0, y1] (inclusive)
+     */
+    public List<ConnectedComponent> intersecting(int x0, int y0, int x1, int y1) {
+        IntList found = new IntList();
+        query(x0, y0, x1, y1, found);
+        List<ConnectedComponent> matches = new ArrayList<>(found.size());
+        for (int k = 0; k < found.size(); k++) {
+            matches.add(components.get(found.get(k)));
+        }
+        return matches;
+    }
+
+    /**
+     * Batch region query over the regions packed as x0, y0, x1, y1 in regions: the matches of region r are added to
+     * out after those of the regions before it and start at out index resultStart[r] (resultStart needs one entry
+     * more than there are regions, the last one is the end of the matches)
+     */
+    public void queryAll(int[] regions, IntList out, int[] resultStart) {
+        int count = regions.length / 4;
+        for (int r = 0; r < count; r++) {
+            resultStart[r] = out.size();
+            query(regions[4 * r], regions[4 * r + 1], regions[4 * r + 2], regions[4 * r + 3], out);
+        }
+        resultStart[count] = out.size();
+    }
+
+    public int getCellSize() { return 1 << cellShift; }
+}
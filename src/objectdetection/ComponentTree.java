@@ -0,0 +1,522 @@
+package objectdetection;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * @author Andrew King
+ *         Component tree (min-tree) of a gray scale image: every connected component of the foreground (gray <=
+ *         threshold, 4-connected like the labelers) at every threshold, built in one union-find pass over the pixels
+ *         sorted by gray level. A node is a component at its level and stays the same component up to the level below
+ *         its parent, so the components, areas, bounds and moments of any threshold are read from the tree instead of
+ *         thresholding and labeling again, which makes threshold sweeps and stable region (MSER) selection cheap.
+ *         A parent always has a higher index than its children. A node is only made when a pixel starts a component
+ *         of its level, the tree holds about 70 bytes per node and 4 per pixel (9 more per pixel while building)
+ */
+public class ComponentTree {
+
+    private static final int LEVELS = 256;
+
+    int width, height;
+    int nodeCount;
+    //per node, -1 for the parent of the root
+    int[] parent;
+    byte[] level;
+    //sums and extremes of the node's pixels, the same ones the features-only labelers accumulate
+    int[] area;
+    long[] sumX, sumY, sumXX, sumXY, sumYY;
+    int[] minX, minY, maxX, maxY;
+    //lowest row-major index of the node's pixels, orders the components the way the labelers number them
+    int[] firstPixel;
+    //smallest node holding each pixel, the one at the pixel's own gray level
+    int[] pixelNode;
+
+    private ComponentTree(int width, int height) {
+        this.width = width;
+        this.height = height;
+    }
+
+    /**
+     * Builds the tree of the width x height gray image in the buffer (read from its position, not modified)
+     */
+    public static ComponentTree build(ByteBuffer gray, int width, int height) {
+        if (gray.remaining() < width * height) {
+            throw new IllegalArgumentException("Expected " + width * height + " pixels but the buffer only has " + gray.remaining());
+        }
+        ComponentTree tree = new ComponentTree(width, height);
+        tree.build(gray.slice());
+        return tree;
+    }
+
+    public static ComponentTree build(DtImage image) {
+        return build(image.getPixels(), image.getWidth(), image.getHeight());
+    }
+
+    private void build(ByteBuffer gray) {
+        int size = width * height;
+        //counting sort of the pixels by gray level, raster order within a level
+        Histogram histogram = Histogram.of(gray, width, height);
+        int[] next = new int[LEVELS];
+        for (int g = 1; g < LEVELS; g++) {
+            next[g] = next[g - 1] + histogram.getCount(g - 1);
+        }
+        int[] sorted = new int[size];
+        for (int p = 0; p < size; p++) {
+            sorted[next[gray.get(p) & 0xFF]++] = p;
+        }
+        //nodes are only made when a pixel starts a component of its level, so start small and grow
+        allocate(Math.max(16, size / 64));
+        //union-find over the pixels added so far: the parent pixel, -1 until added, or -(top node + 2) for a root
+        int[] zpar = new int[size];
+        Arrays.fill(zpar, -1);
+        byte[] rank = new byte[size];
+        pixelNode = new int[size];
+        for (int k = 0; k < size; k++) {
+            int p = sorted[k];
+            int x = p % width;
+            int y = p / width;
+            byte g = gray.get(p);
+            //root of the pixel's set, -1 while the pixel is on its own
+            int root = -1;
+            for (int n = 0; n < 4; n++) {
+                int q;
+                if (n == 0 && x > 0) {
+                    q = p - 1;
+                } else if (n == 1 && x < width - 1) {
+                    q = p + 1;
+                } else if (n == 2 && y > 0) {
+                    q = p - width;
+                } else if (n == 3 && y < height - 1) {
+                    q = p + width;
+                } else {
+                    continue;
+                }
+                if (zpar[q] == -1) {
+                    continue;
+                }
+                int rootQ = find(zpar, q);
+                int nodeQ = -zpar[rootQ] - 2;
+                if (root == -1) {
+                    if (level[nodeQ] == g) {
+                        //the pixel joins the component of its level next to it
+                        addPixel(nodeQ, x, y, p);
+                        pixelNode[p] = nodeQ;
+                        zpar[p] = rootQ;
+                        root = rootQ;
+                    } else {
+                        //the darker component becomes a child of a new node for the pixel
+                        int node = addNode(g, x, y, p);
+                        pixelNode[p] = node;
+                        addInto(nodeQ, node);
+                        parent[nodeQ] = node;
+                        zpar[p] = -node - 2;
+                        root = union(zpar, rank, p, rootQ, node);
+                    }
+                    continue;
+                }
+                root = find(zpar, root);
+                if (rootQ == root) {
+                    continue;
+                }
+                int nodeP = -zpar[root] - 2;
+                int top;
+                if (level[nodeQ] == level[nodeP]) {
+                    //two nodes of the same level are one component, the higher index survives so parents stay above children
+                    top = Math.max(nodeP, nodeQ);
+                    int merged = Math.min(nodeP, nodeQ);
+                    addInto(merged, top);
+                    //a merged node keeps area 0 and forwards to the survivor through its parent until compact
+                    area[merged] = 0;
+                    parent[merged] = top;
+                } else {
+                    //the neighbour's component is darker so it becomes a child of the pixel's node
+                    top = nodeP;
+                    addInto(nodeQ, top);
+                    parent[nodeQ] = top;
+                }
+                root = union(zpar, rank, root, rootQ, top);
+            }
+            if (root == -1) {
+                //no neighbour added yet, a new regional minimum
+                int node = addNode(g, x, y, p);
+                pixelNode[p] = node;
+                zpar[p] = -node - 2;
+            }
+        }
+        compact();
+    }
+
+    //links two roots by rank and makes the top node the node of the joined set, returns the new root
+    private static int union(int[] zpar, byte[] rank, int rootA, int rootB, int top) {
+        if (rank[rootA] < rank[rootB]) {
+            int swap = rootA;
+            rootA = rootB;
+            rootB = swap;
+        } else if (rank[rootA] == rank[rootB]) {
+            rank[rootA]++;
+        }
+        zpar[rootB] = rootA;
+        zpar[rootA] = -top - 2;
+        return rootA;
+    }
+
+    private static int find(int[] zpar, int p) {
+        while (zpar[p] >= 0) {
+            int up = zpar[p];
+            //path halving, roots hold a node instead of a parent
+            if (zpar[up] >= 0) {
+                zpar[p] = zpar[up];
+            }
+            p = up;
+        }
+        return p;
+    }
+
+    private void allocate(int capacity) {
+        parent = new int[capacity];
+        level = new byte[capacity];
+        area = new int[capacity];
+        sumX = new long[capacity];
+        sumY = new long[capacity];
+        sumXX = new long[capacity];
+        sumXY = new long[capacity];
+        sumYY = new long[capacity];
+        minX = new int[capacity];
+        minY = new int[capacity];
+        maxX = new int[capacity];
+        maxY = new int[capacity];
+        firstPixel = new int[capacity];
+    }
+
+    private void resize(int capacity) {
+        parent = Arrays.copyOf(parent, capacity);
+        level = Arrays.copyOf(level, capacity);
+        area = Arrays.copyOf(area, capacity);
+        sumX = Arrays.copyOf(sumX, capacity);
+        sumY = Arrays.copyOf(sumY, capacity);
+        sumXX = Arrays.copyOf(sumXX, capacity);
+        sumXY = Arrays.copyOf(sumXY, capacity);
+        sumYY = Arrays.copyOf(sumYY, capacity);
+        minX = Arrays.copyOf(minX, capacity);
+        minY = Arrays.copyOf(minY, capacity);
+        maxX = Arrays.copyOf(maxX, capacity);
+        maxY = Arrays.copyOf(maxY, capacity);
+        firstPixel = Arrays.copyOf(firstPixel, capacity);
+    }
+
+    //node of the single pixel (x, y)
+    private int addNode(byte gray, int x, int y, int p) {
+        if (nodeCount == parent.length) {
+            resize(nodeCount * 2);
+        }
+        int node = nodeCount++;
+        parent[node] = -1;
+        level[node] = gray;
+        area[node] = 1;
+        sumX[node] = x;
+        sumY[node] = y;
+        sumXX[node] = (long) x * x;
+        sumXY[node] = (long) x * y;
+        sumYY[node] = (long) y * y;
+        minX[node] = x;
+        maxX[node] = x;
+        minY[node] = y;
+        maxY[node] = y;
+        firstPixel[node] = p;
+        return node;
+    }
+
+    //adds the pixel (x, y) to the node
+    private void addPixel(int node, int x, int y, int p) {
+        area[node]++;
+        sumX[node] += x;
+        sumY[node] += y;
+        sumXX[node] += (long) x * x;
+        sumXY[node] += (long) x * y;
+        sumYY[node] += (long) y * y;
+        minX[node] = Math.min(minX[node], x);
+        maxX[node] = Math.max(maxX[node], x);
+        minY[node] = Math.min(minY[node], y);
+        maxY[node] = Math.max(maxY[node], y);
+        firstPixel[node] = Math.min(firstPixel[node], p);
+    }
+
+    private void addInto(int from, int to) {
+        area[to] += area[from];
+        sumX[to] += sumX[from];
+        sumY[to] += sumY[from];
+        sumXX[to] += sumXX[from];
+        sumXY[to] += sumXY[from];
+        sumYY[to] += sumYY[from];
+        minX[to] = Math.min(minX[to], minX[from]);
+        minY[to] = Math.min(minY[to], minY[from]);
+        maxX[to] = Math.max(maxX[to], maxX[from]);
+        maxY[to] = Math.max(maxY[to], maxY[from]);
+        firstPixel[to] = Math.min(firstPixel[to], firstPixel[from]);
+    }
+
+    /**
+     * Drops the merged nodes, moving the rest down in order (which keeps parents above children) and pointing the
+     * pixels and children of a merged node at the node it was merged into
+     */
+    private void compact() {
+        int[] target = new int[nodeCount];
+        int live = 0;
+        for (int node = 0; node < nodeCount; node++) {
+            target[node] = area[node] > 0 ? live++ : -1;
+        }
+        //a merged node forwards to a higher index, so resolve from the top down
+        for (int node = nodeCount - 1; node >= 0; node--) {
+            if (target[node] < 0) {
+                target[node] = target[parent[node]];
+            }
+        }
+        for (int p = 0; p < pixelNode.length; p++) {
+            pixelNode[p] = target[pixelNode[p]];
+        }
+        for (int node = 0; node < nodeCount; node++) {
+            if (area[node] == 0) {
+                continue;
+            }
+            int to = target[node];
+            parent[to] = parent[node] < 0 ? -1 : target[parent[node]];
+            level[to] = level[node];
+            area[to] = area[node];
+            sumX[to] = sumX[node];
+            sumY[to] = sumY[node];
+            sumXX[to] = sumXX[node];
+            sumXY[to] = sumXY[node];
+            sumYY[to] = sumYY[node];
+            minX[to] = minX[node];
+            minY[to] = minY[node];
+            maxX[to] = maxX[node];
+            maxY[to] = maxY[node];
+            firstPixel[to] = firstPixel[node];
+        }
+        nodeCount = live;
+        resize(live);
+    }
+
+    public int getWidth() { return width; }
+
+    public int getHeight() { return height; }
+
+    public int getNodeCount() { return nodeCount; }
+
+    /**
+     * The root holds every pixel of the image, it is always the last node
+     */
+    public int getRoot() { return nodeCount - 1; }
+
+    public int getParent(int node) { return parent[node]; }
+
+    /**
+     * Lowest threshold at which the node is a component
+     */
+    public int getLevel(int node) { return level[node] & 0xFF; }
+
+    /**
+     * Highest threshold at which the node is still the same component (255 for the root)
+     */
+    public int getTopLevel(int node) { return parent[node] < 0 ? LEVELS - 1 : getLevel(parent[node]) - 1; }
+
+    public int getArea(int node) { return area[node]; }
+
+    public int getMinX(int node) { return minX[node]; }
+
+    public int getMinY(int node) { return minY[node]; }
+
+    public int getMaxX(int node) { return maxX[node]; }
+
+    public int getMaxY(int node) { return maxY[node]; }
+
+    public int getFirstPixel(int node) { return firstPixel[node]; }
+
+    /**
+     * Node of the component holding the pixel at the threshold, or -1 if the pixel is background at that threshold
+     */
+    public int nodeAt(int pixel, int threshold) {
+        int node = pixelNode[pixel];
+        if (getLevel(node) > threshold) {
+            return -1;
+        }
+        while (parent[node] >= 0 && getLevel(parent[node]) <= threshold) {
+            node = parent[node];
+        }
+        return node;
+    }
+
+    /**
+     * Nodes of every component at the threshold, in the order the labelers number them (by first pixel in raster order)
+     */
+    public int[] nodesAt(int threshold) {
+        IntList nodes = new IntList();
+        for (int node = 0; node < nodeCount; node++) {
+            if (getLevel(node) <= threshold && getTopLevel(node) >= threshold) {
+                nodes.add(node);
+            }
+        }
+        long[] keys = new long[nodes.size()];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = (long) firstPixel[nodes.get(i)] << 32 | nodes.get(i);
+        }
+        Arrays.sort(keys);
+        int[] sorted = new int[keys.length];
+        for (int i = 0; i < keys.length; i++) {
+            sorted[i] = (int) keys[i];
+        }
+        return sorted;
+    }
+
+    /**
+     * Labels of the nodes of nodesAt in the order given, 0 for the ones the size filter drops. Like the labelers every
+     * node is numbered (so filtered nodes leave gaps) when they all fit the short label image, otherwise only the
+     * nodes with at least minSize pixels are
+     */
+    private int[] labelNodes(int[] nodes, int minSize) {
+        int[] labels = new int[nodes.length];
+        boolean numberAll = nodes.length <= Short.MAX_VALUE - 1;
+        int next = 2;
+        for (int i = 0; i < nodes.length; i++) {
+            if (area[nodes[i]] >= minSize) {
+                labels[i] = next;
+            }
+            if (numberAll || labels[i] != 0) {
+                next++;
+            }
+        }
+        return labels;
+    }
+
+    /**
+     * Components at the threshold with at least minSize pixels, with the labels, centroid, bounds and axis metrics
+     * the features-only detection at that simple threshold and filter size would give them (and no pixels)
+     */
+    public List<ConnectedComponent> componentsAt(int threshold, int minSize) {
+        int[] nodes = nodesAt(threshold);
+        int[] labels = labelNodes(nodes, minSize);
+        List<ConnectedComponent> components = new ArrayList<>();
+        for (int i = 0; i < nodes.length; i++) {
+            if (labels[i] != 0) {
+                components.add(toComponent(nodes[i], labels[i]));
+            }
+        }
+        return components;
+    }
+
+    /**
+     * The whole result of a features-only detection at the simple threshold and filter size: the label image and the
+     * components of componentsAt
+     */
+    public DetectionResult detectAt(int threshold, int minSize) {
+        int[] nodes = nodesAt(threshold);
+        int[] labels = labelNodes(nodes, minSize);
+        //label of every node at the threshold, then of every node below it (parents first)
+        short[] nodeLabel = new short[nodeCount];
+        List<ConnectedComponent> components = new ArrayList<>();
+        for (int i = 0; i < nodes.length; i++) {
+            if (labels[i] == 0) {
+                continue;
+            }
+            if (labels[i] > Short.MAX_VALUE) {
+                throw new IllegalStateException("More than " + (Short.MAX_VALUE - 1) + " components do not fit the "
+                        + "short label image, use componentsAt for the features of thresholds this busy");
+            }
+            nodeLabel[nodes[i]] = (short) labels[i];
+            components.add(toComponent(nodes[i], labels[i]));
+        }
+        for (int node = nodeCount - 1; node >= 0; node--) {
+            if (getLevel(node) <= threshold && getTopLevel(node) < threshold) {
+                nodeLabel[node] = nodeLabel[parent[node]];
+            }
+        }
+        short[] labelImage = new short[pixelNode.length];
+        for (int p = 0; p < labelImage.length; p++) {
+            labelImage[p] = nodeLabel[pixelNode[p]];
+        }
+        return new DetectionResult(width, height, labelImage, components);
+    }
+
+    /**
+     * Number of components with at least minSize pixels at every threshold from 0 to 255, from one walk over the nodes
+     */
+    public int[] countsByThreshold(int minSize) {
+        int[] counts = new int[LEVELS + 1];
+        for (int node = 0; node < nodeCount; node++) {
+            if (area[node] >= minSize) {
+                counts[getLevel(node)]++;
+                counts[getTopLevel(node) + 1]--;
+            }
+        }
+        for (int t = 1; t < LEVELS; t++) {
+            counts[t] += counts[t - 1];
+        }
+        return Arrays.copyOf(counts, LEVELS);
+    }
+
+    /**
+     * Maximally stable extremal regions: nodes whose area grows the least over the next delta gray levels, measured
+     * as (area delta levels up - area) / area, compared with their parent and children. Only nodes with an area in
+     * [minArea, maxArea] and a variation of at most maxVariation are returned, in index order
+     */
+    public int[] stableRegions(int delta, int minArea, int maxArea, double maxVariation) {
+        double[] variation = new double[nodeCount];
+        for (int node = 0; node < nodeCount; node++) {
+            //parent levels only go up so this takes at most delta steps
+            int top = node;
+            int limit = getLevel(node) + delta;
+            while (parent[top] >= 0 && getLevel(parent[top]) <= limit) {
+                top = parent[top];
+            }
+            variation[node] = (area[top] - area[node]) / (double) area[node];
+        }
+        double[] lowestChild = new double[nodeCount];
+        Arrays.fill(lowestChild, Double.POSITIVE_INFINITY);
+        for (int node = 0; node < nodeCount; node++) {
+            if (parent[node] >= 0) {
+                lowestChild[parent[node]] = Math.min(lowestChild[parent[node]], variation[node]);
+            }
+        }
+        IntList stable = new IntList();
+        for (int node = 0; node < nodeCount; node++) {
+            if (area[node] >= minArea && area[node] <= maxArea && variation[node] <= maxVariation
+                    && variation[node] <= lowestChild[node]
+                    && (parent[node] < 0 || variation[node] < variation[parent[node]])) {
+                stable.add(node);
+            }
+        }
+        return stable.toArray();
+    }
+
+    /**
+     * Features-only component of the node (centroid, bounds and axis metrics, no pixels) with the given label
+     */
+    public ConnectedComponent toComponent(int node, int label) {
+        ConnectedComponent cc = new ConnectedComponent();
+        cc.label = label;
+        cc.setFeatures(area[node], sumX[node], sumY[node], sumXX[node], sumXY[node], sumYY[node],
+                minX[node], minY[node], maxX[node], maxY[node]);
+        return cc;
+    }
+
+    /**
+     * Adds the row-major indexes of the node's pixels to the list in raster order, found by climbing from every
+     * pixel of its bounding box
+     */
+    public void getPixels(int node, IntList out) {
+        for (int y = minY[node]; y <= maxY[node]; y++) {
+            for (int p = y * width + minX[node]; p <= y * width + maxX[node]; p++) {
+                //ancestors have higher indexes, so the node is reached before passing it or not at all
+                int n = pixelNode[p];
+                while (n < node) {
+                    n = parent[n];
+                }
+                if (n == node) {
+                    out.add(p);
+                }
+            }
+        }
+    }
+}
@@ -1,24 +1,36 @@
 package objectdetection;
 
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.HashMap;
-import java.util.List;
-
-import static processing.core.PApplet.println;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.Set;
 
 /**
  * @author Andrew King
  *         Class for our components, contains their pixel, perimeter, centroid, and medial medial axis data
  *         Also contains metrics such as bounding box points, compactness, and axis of elongation
+ *         Metrics are computed when the detector is asked for them (see Feature) or else the first time a getter
+ *         needs them, and are kept from then on. The components of a DetectionResult are read-only: their mutators
+ *         throw, skeletonize and deSkeletonize return new components, and the metrics computed on first access are
+ *         computed under the component's lock so they can be read from several threads
  */
 public class ConnectedComponent {
 
     //item and perimeter pixels in object
-    List<Integer> pixels = new ArrayList<>();
-    HashMap<Integer, Short> medialAxis = new HashMap<>();
+    IntList pixels = new IntList();
+    //medial axis pixels and their distances (radii), the first skeletonSize entries are in use
+    int[] skeletonPixels = new int[0];
+    short[] skeletonRadii = new short[0];
+    int skeletonSize;
 
-    List<Integer> perimeter = new ArrayList<>();
+    IntList perimeter = new IntList();
+    //label of the component in the label image
+    int label;
+    //number of pixels in the object (kept separately so features-only components need no pixel list)
+    int area;
     //width and height of object (not of bounding box)
     int width, height;
     //top left coordinates of bounding box
@@ -27,9 +39,21 @@ public class ConnectedComponent {
     float a, b, c;
     //various metrics about the object
     double sinTwoTheta, cosTwoTheta, chiSquaredMax, chiSquaredMin, eccentricity, compactness;
+    //size of the image the component was found in and the distance for its medial axis, width 0 until it is known
+    int imageWidth, imageHeight;
+    DistanceTransform.Metric medialAxisMetric = DistanceTransform.Metric.CITY_BLOCK;
+    //Feature masks of the metrics already computed, written after their values so a thread that sees the mask set
+    //also sees the values
+    volatile int computed;
+    //Feature masks of the metrics that need a pixel list this component does not have (features-only labeling)
+    int unavailable;
+    //set once the component is handed out in a DetectionResult
+    boolean readOnly;
 
     public void addPixel(int i) {
+        checkWritable();
         pixels.add(i);
+        area++;
     }
 
     /**
@@ -37,26 +61,176 @@ public class ConnectedComponent {
      * Because some calculations depend on others being calculated first, the order these are called is important
      */
     public void runCalculations(int displayWidth, int displayHeight, short[] binaryImg) {
+        runCalculations(displayWidth, displayHeight, binaryImg, DistanceTransform.Metric.CITY_BLOCK);
+    }
+
+    /**
+     * Same as runCalculations(displayWidth, displayHeight, binaryImg) with the distance metric used for the medial axis
+     */
+    public void runCalculations(int displayWidth, int displayHeight, short[] binaryImg, DistanceTransform.Metric metric) {
+        checkWritable();
         calcPerimeter(displayWidth, displayHeight, binaryImg);
-        calcCentroid(displayWidth);
-        calcBounds(displayWidth);
-        calcAxis(displayWidth);
-        calcMedialAxis(displayWidth, displayHeight);
-        compactness = Math.pow(perimeter.size(), 2) / pixels.size();
+        computed |= Feature.PERIMETER.mask;
+        runCalculations(displayWidth, displayHeight, metric, EnumSet.allOf(Feature.class));
+    }
+
+    /**
+     * Runs the calculations of the selected features, the others are left until something asks for them
+     * (the detector fills in the perimeter beforehand when it is selected, from the boundary of its BitImage)
+     */
+    void runCalculations(int displayWidth, int displayHeight, DistanceTransform.Metric metric, Set<Feature> features) {
+        area = pixels.size();
+        attach(displayWidth, displayHeight, metric);
+        calculate(features);
+    }
+
+    /**
+     * Sets the image the component was found in, after this the metrics can be computed on demand
+     */
+    void attach(int displayWidth, int displayHeight, DistanceTransform.Metric metric) {
+        imageWidth = displayWidth;
+        imageHeight = displayHeight;
+        medialAxisMetric = metric;
+    }
+
+    /**
+     * Computes the given features (and those they need) unless they were computed already, skips the unavailable ones
+     */
+    public void calculate(Set<Feature> features) {
+        for (Feature feature : features) {
+            if (isAvailable(feature)) {
+                ensure(feature);
+            }
+        }
+    }
+
+    public boolean isCalculated(Feature feature) { return (computed & feature.mask) != 0; }
+
+    /**
+     * False for the perimeter, medial axis and compactness of a features-only component, which has no pixels to
+     * compute them from, their getters throw an IllegalStateException
+     */
+    public boolean isAvailable(Feature feature) { return (unavailable & feature.mask) == 0; }
+
+    private void checkWritable() {
+        if (readOnly) {
+            throw new IllegalStateException("The components of a DetectionResult are read-only");
+        }
+    }
+
+    private void ensure(Feature feature) {
+        //only lock while the feature is still missing
+        if ((computed & feature.mask) == 0) {
+            if ((unavailable & feature.mask) != 0) {
+                throw new IllegalStateException(feature + " is not available for a component labeled in features-only mode");
+            }
+            compute(feature);
+        }
+    }
+
+    private synchronized void compute(Feature feature) {
+        //nothing to compute from before the component is attached to an image
+        if ((computed & feature.mask) != 0 || imageWidth == 0) {
+            return;
+        }
+        switch (feature) {
+            case CENTROID:
+                calcCentroid(imageWidth);
+                break;
+            case BOUNDS:
+                calcBounds(imageWidth);
+                break;
+            case AXIS:
+                ensure(Feature.CENTROID);
+                calcAxis(imageWidth);
+                break;
+            case PERIMETER:
+                ensure(Feature.BOUNDS);
+                calcPerimeter();
+                break;
+            case MEDIAL_AXIS:
+                ensure(Feature.BOUNDS);
+                medialAxis(imageWidth, imageHeight, medialAxisMetric);
+                break;
+            default:
+                ensure(Feature.PERIMETER);
+                compactness = Math.pow(perimeter.size(), 2) / pixels.size();
+                break;
+        }
+        computed |= feature.mask;
+    }
+
+    /**
+     * Sets centroid, bounding box and axis metrics from sums accumulated while labeling (features-only mode)
+     * produces the same values calcCentroid, calcBounds and calcAxis would from the pixel list, without one the metrics
+     * that need the pixels become unavailable
+     */
+    public void setFeatures(long area, long sumX, long sumY, long sumXX, long sumXY, long sumYY,
+                            int minX, int minY, int maxX, int maxY) {
+        checkWritable();
+        this.area = (int) area;
+        centroidX = (int) (sumX / area);
+        centroidY = (int) (sumY / area);
+        //same bounding box adjustments as calcBounds
+        left = minX - 1;
+        width = maxX - left;
+        top = minY - 1;
+        height = maxY - top;
+        //expand the sums of (x - xBar) and (y - yBar) around our centroid
+        a = sumXX - 2 * centroidX * sumX + area * centroidX * centroidX;
+        b = 2 * (sumXY - centroidY * sumX - centroidX * sumY + area * centroidX * centroidY);
+        c = sumYY - 2 * centroidY * sumY + area * centroidY * centroidY;
+        calcAxisMetrics();
+        if (pixels.isEmpty()) {
+            unavailable = Feature.PERIMETER.mask | Feature.MEDIAL_AXIS.mask | Feature.COMPACTNESS.mask;
+        }
+        computed |= Feature.CENTROID.mask | Feature.BOUNDS.mask | Feature.AXIS.mask;
     }
 
     /**
      * Determines the perimeter of the object and adds those pixels to the perimeter array
      */
     private void calcPerimeter(int displayWidth, int displayHeight, short[] binaryImg) {
+        int[] pixel = pixels.values;
         for (int i = 0; i < pixels.size(); i++) {
-            int N = pixels.get(i) - displayWidth;
-            int E = pixels.get(i) + 1;
-            int S = pixels.get(i) + displayWidth;
-            int W = pixels.get(i) - 1;
+            int N = pixel[i] - displayWidth;
+            int E = pixel[i] + 1;
+            int S = pixel[i] + displayWidth;
+            int W = pixel[i] - 1;
             //if n or s pixel is beyond the image were on the perimeter, if w or e pixel is on an edge were on the perimeter
             if (uvInBounds(N, E, S, W, displayWidth, displayHeight) && (binaryImg[N] == 0 || binaryImg[E] == 0 || binaryImg[S] == 0 || binaryImg[W] == 0)) {
-                perimeter.add(pixels.get(i));
+                perimeter.add(pixel[i]);
+            }
+        }
+    }
+
+    /**
+     * Same perimeter from the component's own pixels, drawn into a pooled buffer the size of the bounding box
+     * (a 4-neighbour in the foreground always belongs to the same component), relies on calcBounds having been run
+     */
+    private void calcPerimeter() {
+        int minX = left + 1;
+        int minY = top + 1;
+        short[] mask = ScratchBuffers.get().shorts(0, width * height);
+        int[] pixel = pixels.values;
+        for (int i = 0; i < pixels.size(); i++) {
+            mask[(pixel[i] / imageWidth - minY) * width + pixel[i] % imageWidth - minX] = 1;
+        }
+        for (int i = 0; i < pixels.size(); i++) {
+            int x = pixel[i] % imageWidth;
+            int y = pixel[i] / imageWidth;
+            //pixels on the edge of the image are never on the perimeter
+            if (x == 0 || y == 0 || x == imageWidth - 1 || y == imageHeight - 1) {
+                continue;
+            }
+            int roi = (y - minY) * width + x - minX;
+            //neighbours outside of the box are background
+            boolean north = y > minY && mask[roi - width] != 0;
+            boolean south = y < minY + height - 1 && mask[roi + width] != 0;
+            boolean west = x > minX && mask[roi - 1] != 0;
+            boolean east = x < minX + width - 1 && mask[roi + 1] != 0;
+            if (!(north && south && west && east)) {
+                perimeter.add(pixel[i]);
             }
         }
     }
@@ -76,18 +250,17 @@ public class ConnectedComponent {
      * Determines the location of the centroid
      */
     private void calcCentroid(int displayWidth) {
-        int xBar = 0;
-        int yBar = 0;
-        for (Integer pixel : pixels) {
+        long xBar = 0;
+        long yBar = 0;
+        int[] pixel = pixels.values;
+        for (int i = 0; i < pixels.size(); i++) {
             //add all the j values
-            xBar += pixel % displayWidth;
+            xBar += pixel[i] % displayWidth;
             //add all the i values
-            yBar += Math.floorDiv(pixel, displayWidth);
+            yBar += pixel[i] / displayWidth;
         }
-        xBar = xBar / pixels.size();
-        yBar = yBar / pixels.size();
-        centroidX = xBar;
-        centroidY = yBar;
+        centroidX = (int) (xBar / pixels.size());
+        centroidY = (int) (yBar / pixels.size());
     }
 
     /**
@@ -97,16 +270,24 @@ public class ConnectedComponent {
 
         left = Integer.MAX_VALUE;
         int right = 0;
-        int max = Collections.max(pixels);
-        int min = Collections.min(pixels);
-
-        for (int x = 0; x < pixels.size(); x++) {
+        //the pixels are row-major indexes so the smallest and largest give the top and bottom rows
+        int max = Integer.MIN_VALUE;
+        int min = Integer.MAX_VALUE;
+        int[] pixel = pixels.values;
+        for (int i = 0; i < pixels.size(); i++) {
+            int x = pixel[i] % fullWidth;
             //get far right and far left coordinates of component
-            if (pixels.get(x) % fullWidth < left) {
-                left = pixels.get(x) % fullWidth;
+            if (x < left) {
+                left = x;
+            }
+            if (x > right) {
+                right = x;
+            }
+            if (pixel[i] < min) {
+                min = pixel[i];
             }
-            if (pixels.get(x) % fullWidth > right) {
-                right = pixels.get(x) % fullWidth;
+            if (pixel[i] > max) {
+                max = pixel[i];
             }
         }
         //adjust so bounding box is not overlapping with component
@@ -121,23 +302,32 @@ public class ConnectedComponent {
      * Determines the metrics for the axis of elongation
      */
     private void calcAxis(int displayWidth) {
-        //second order moments
-        a = 0;
-        b = 0;
-        c = 0;
+        //second order moments (summed exactly so they match the features-only sums)
+        long sumA = 0;
+        long sumB = 0;
+        long sumC = 0;
         //for each pixel in the component, add corresponding value to its second order moments
-        for (Integer pixel : pixels) {
-            int x = pixel % displayWidth;
-            int y = Math.floorDiv(pixel, displayWidth);
-            int xPrime = x - centroidX;
-            int yPrime = y - centroidY;
-            a += Math.pow(xPrime, 2);
-            b += xPrime * yPrime;
-            c += Math.pow(yPrime, 2);
+        int[] pixel = pixels.values;
+        for (int i = 0; i < pixels.size(); i++) {
+            int x = pixel[i] % displayWidth;
+            int y = pixel[i] / displayWidth;
+            long xPrime = x - centroidX;
+            long yPrime = y - centroidY;
+            sumA += xPrime * xPrime;
+            sumB += xPrime * yPrime;
+            sumC += yPrime * yPrime;
         }
+        a = sumA;
         //don't forget to multiply b by 2
-        b = b * 2;
-        //calculate other metrics
+        b = sumB * 2;
+        c = sumC;
+        calcAxisMetrics();
+    }
+
+    /**
+     * Determines the orientation and elongation metrics from the second-order moments
+     */
+    private void calcAxisMetrics() {
         sinTwoTheta = b / (Math.sqrt(Math.pow(b, 2) + Math.pow(a - c, 2)));
         cosTwoTheta = (a - c) / (Math.sqrt(Math.pow(b, 2) + Math.pow(a - c, 2)));
         chiSquaredMax = .5 * (a + c) + .5 * (a - c) * cosTwoTheta + .5 * b * sinTwoTheta;
@@ -149,161 +339,391 @@ public class ConnectedComponent {
      * Determines the medial axis/skeleton of the object and adds those pixels to the medialaxis array
      */
     public void calcMedialAxis(int displayWidth, int displayHeight) {
-        //GET DISTANCE TRANSFORMS - use temporary binary image for calculations without affecting our actual binary image
-        short[] distTrans = new short[displayWidth * displayHeight];
-        calcDistanceTransforms(displayWidth, displayHeight, distTrans);
+        calcMedialAxis(displayWidth, displayHeight, DistanceTransform.Metric.CITY_BLOCK);
+    }
 
-        //CALC MEDIAL AXIS
-        int firstBackground = -1;
-        //get index of first background pixel
-        for (int x = 0; x < distTrans.length; x++) {
-            if (distTrans[x] == 0) {
-                firstBackground = x;
-                break;
-            }
+    /**
+     * Determines the medial axis using the given distance metric, relies on calcBounds having been run
+     * the radii stored with the axis are only an exact inverse for deSkeletonize with the city-block metric
+     */
+    public void calcMedialAxis(int displayWidth, int displayHeight, DistanceTransform.Metric metric) {
+        checkWritable();
+        medialAxis(displayWidth, displayHeight, metric);
+    }
+
+    private synchronized void medialAxis(int displayWidth, int displayHeight, DistanceTransform.Metric metric) {
+        //GET DISTANCE TRANSFORMS - use a pooled buffer the size of our bounding box without affecting our actual binary image
+        //(everything outside the bounding box, including beyond the image, is background for this component)
+        int minX = left + 1;
+        int minY = top + 1;
+        short[] distTrans = ScratchBuffers.get().shorts(0, width * height);
+        skeletonSize = 0;
+        int[] pixelIndexes = pixels.values;
+        for (int i = 0; i < pixels.size(); i++) {
+            int pixel = pixelIndexes[i];
+            distTrans[(pixel / displayWidth - minY) * width + pixel % displayWidth - minX] = 1;
         }
+        DistanceTransform.transform(metric, distTrans, width, 0, 0, width - 1, height - 1);
+
+        //CALC MEDIAL AXIS
         for (int i = 0; i < pixels.size(); i++) {
-            short current = distTrans[pixels.get(i)];
-            int N = pixels.get(i) - displayWidth;
-            int E = pixels.get(i) + 1;
-            int S = pixels.get(i) + displayWidth;
-            int W = pixels.get(i) - 1;
-            //if were checking a neighbor that is outside of the image area just pretend it is a background pixel
-            if (N < 0) {
-                N = firstBackground;
-            }
-            if (S >= displayWidth * displayHeight) {
-                S = firstBackground;
-            }
-            if (E % displayWidth == 0) {
-                E = firstBackground;
-            }
-            if (W % displayWidth == displayWidth - 1) {
-                W = firstBackground;
-            }
+            int pixel = pixelIndexes[i];
+            int x = pixel % displayWidth - minX;
+            int y = pixel / displayWidth - minY;
+            int roi = y * width + x;
+            short current = distTrans[roi];
+            //if were checking a neighbor that is outside of the box just pretend it is a background pixel
+            int north = y > 0 ? distTrans[roi - width] : 0;
+            int east = x < width - 1 ? distTrans[roi + 1] : 0;
+            int south = y < height - 1 ? distTrans[roi + width] : 0;
+            int west = x > 0 ? distTrans[roi - 1] : 0;
             //check if current pixel is greater than or equal to all its neighbors
-            if (current >= distTrans[N] && current >= distTrans[E] && current >= distTrans[S] && current >= distTrans[W]) {
-                medialAxis.put(pixels.get(i), distTrans[pixels.get(i)]);
+            if (current >= north && current >= east && current >= south && current >= west) {
+                addSkeletonPixel(pixel, current);
             }
         }
+        computed |= Feature.MEDIAL_AXIS.mask;
     }
 
-    private void calcDistanceTransforms(int displayWidth, int displayHeight, short[] distTrans) {
-        //set all pixels to 1's as first iteration
-        for (int i = 0; i < pixels.size(); i++) {
-            distTrans[pixels.get(i)] = 1;
-        }
-        //next we will set all inner pixels to 2
-        for (short x = 2; x < Math.min(displayWidth, displayHeight); x++) {
-            boolean changesMade = false;
-            for (int i = 0; i < pixels.size(); i++) {
-                //find neighbors
-                int N = pixels.get(i) - displayWidth;
-                int E = pixels.get(i) + 1;
-                int S = pixels.get(i) + displayWidth;
-                int W = pixels.get(i) - 1;
-                //if we are not on an edge && (short circuit) if we have ALL 4-neighbors that are the current count (has already been changed) or is the count-1, change the current pixel to the current count
-                if (uvInBounds(N, E, S, W, displayWidth, displayHeight) && (distTrans[N] == x || distTrans[N] == x - 1) && (distTrans[E] == x || distTrans[E] == x - 1)
-                        && (distTrans[S] == x || distTrans[S] == x - 1) && (distTrans[W] == x || distTrans[W] == x - 1)) {
-                    distTrans[pixels.get(i)] = x;
-                    changesMade = true;
-                }
-            }
-            //if we made no changes we are done
-            if (changesMade == false) {
-                break;
-            }
+    private void addSkeletonPixel(int pixel, short radius) {
+        if (skeletonSize == skeletonPixels.length) {
+            int capacity = Math.max(16, skeletonSize * 2);
+            skeletonPixels = Arrays.copyOf(skeletonPixels, capacity);
+            skeletonRadii = Arrays.copyOf(skeletonRadii, capacity);
         }
+        skeletonPixels[skeletonSize] = pixel;
+        skeletonRadii[skeletonSize] = radius;
+        skeletonSize++;
     }
 
     /**
-     * Converts the object to its medial axis only (removes all other pixel data)
+     * Returns a copy of the object holding only its medial axis pixels (this component is left as it is)
      */
-    public void skeletonize() {
-        pixels = new ArrayList<>();
-        for (Integer pixel : medialAxis.keySet()) {
-            pixels.add(pixel);
+    public ConnectedComponent skeletonize() {
+        //the metrics describe the whole object so compute the missing ones before its pixels go
+        calculate(EnumSet.allOf(Feature.class));
+        IntList axis = new IntList(skeletonSize);
+        for (int i = 0; i < skeletonSize; i++) {
+            axis.add(skeletonPixels[i]);
         }
+        ConnectedComponent skeleton = copy(axis);
+        skeleton.area = axis.size();
+        return skeleton;
     }
 
     /**
-     * Reconstructs the object from its medial axis
+     * Returns a copy of the object with the pixels reconstructed from its medial axis added to its own
      */
-    public void deSkeletonize(int displayWidth, int displayHeight) {
-        short[] deSkeleton = new short[displayWidth * displayHeight];
-        for (Integer pixel : medialAxis.keySet()) {
-            deSkeleton[pixel] = medialAxis.get(pixel);
+    public ConnectedComponent deSkeletonize(int displayWidth, int displayHeight) {
+        calculate(EnumSet.allOf(Feature.class));
+        ConnectedComponent object = copy(copyOf(pixels));
+        if (skeletonSize == 0) {
+            return object;
         }
-
-        //get the maximum value/distance in the image array to use as for loop start
+        //the reconstruction can reach at most (radius - 1) pixels past the bounding box of the axis
+        int minX = displayWidth, minY = displayHeight, maxX = -1, maxY = -1;
         short maxValue = 0;
-        for (short pixel : deSkeleton) {
-            if (pixel > maxValue) {
-                maxValue = pixel;
-            }
+        for (int i = 0; i < skeletonSize; i++) {
+            int pixel = skeletonPixels[i];
+            minX = Math.min(minX, pixel % displayWidth);
+            maxX = Math.max(maxX, pixel % displayWidth);
+            minY = Math.min(minY, pixel / displayWidth);
+            maxY = Math.max(maxY, pixel / displayWidth);
+            maxValue = (short) Math.max(maxValue, skeletonRadii[i]);
+        }
+        int x0 = Math.max(0, minX - maxValue + 1);
+        int y0 = Math.max(0, minY - maxValue + 1);
+        int x1 = Math.min(displayWidth - 1, maxX + maxValue - 1);
+        int y1 = Math.min(displayHeight - 1, maxY + maxValue - 1);
+        //work in a pooled buffer covering just that box
+        int boxWidth = x1 - x0 + 1;
+        int boxHeight = y1 - y0 + 1;
+        ScratchBuffers scratch = ScratchBuffers.get();
+        short[] deSkeleton = scratch.shorts(0, boxWidth * boxHeight);
+        int[] seeds = scratch.ints(3, skeletonSize);
+        for (int i = 0; i < skeletonSize; i++) {
+            int pixel = skeletonPixels[i];
+            seeds[i] = (pixel / displayWidth - y0) * boxWidth + pixel % displayWidth - x0;
+            deSkeleton[seeds[i]] = skeletonRadii[i];
+        }
+        //grow every axis pixel back out to its radius, each pixel is expanded once
+        DistanceTransform.reconstruct(deSkeleton, boxWidth, boxHeight, seeds, skeletonSize, maxValue);
+        //the axis pixels themselves are already in our pixel list
+        for (int i = 0; i < skeletonSize; i++) {
+            deSkeleton[seeds[i]] = 0;
         }
-        //loop from our max value down to 2(inclusive, which builds the 1s ring) incrementally building out our binary image again
-        for (int i = maxValue; i > 1; i--) {
-            for (int x = 0; x < deSkeleton.length; x++) {
-                if (deSkeleton[x] == i) {
-                    //get our compass pixels
-                    int N = x - displayWidth;
-                    int E = x + 1;
-                    int S = x + displayWidth;
-                    int W = x - 1;
-                    //if there is a north pixel and it hasn't been rebuilt already, build it with our current i-1
-                    if (!(N < 0) && deSkeleton[N] == 0) {
-                        deSkeleton[N] = (short) (i - 1);
-                        pixels.add(N);
-                    }
-                    //if there is an east pixel
-                    if (!(E % displayWidth == 0) && deSkeleton[E] == 0) {
-                        deSkeleton[E] = (short) (i - 1);
-                        pixels.add(E);
-                    }
-                    //if there is a south pixel
-                    if (!(S >= displayWidth * displayHeight) && deSkeleton[S] == 0) {
-                        deSkeleton[S] = (short) (i - 1);
-                        pixels.add(S);
-                    }
-                    //if there is a west pixel
-                    if (!(W % displayWidth == displayWidth - 1) && deSkeleton[W] == 0) {
-                        deSkeleton[W] = (short) (i - 1);
-                        pixels.add(W);
-                    }
+        for (int y = y0; y <= y1; y++) {
+            for (int x = x0; x <= x1; x++) {
+                if (deSkeleton[(y - y0) * boxWidth + x - x0] > 0) {
+                    object.pixels.add(y * displayWidth + x);
                 }
             }
         }
+        object.area = object.pixels.size();
+        return object;
+    }
+
+    //writable copy of the component with the given pixels and its own lists, only called once every metric is computed
+    private ConnectedComponent copy(IntList pixels) {
+        ConnectedComponent cc = new ConnectedComponent();
+        cc.pixels = pixels;
+        cc.perimeter = copyOf(perimeter);
+        cc.skeletonPixels = Arrays.copyOf(skeletonPixels, skeletonSize);
+        cc.skeletonRadii = Arrays.copyOf(skeletonRadii, skeletonSize);
+        cc.skeletonSize = skeletonSize;
+        cc.label = label;
+        cc.area = area;
+        cc.width = width;
+        cc.height = height;
+        cc.top = top;
+        cc.left = left;
+        cc.centroidX = centroidX;
+        cc.centroidY = centroidY;
+        cc.a = a;
+        cc.b = b;
+        cc.c = c;
+        cc.sinTwoTheta = sinTwoTheta;
+        cc.cosTwoTheta = cosTwoTheta;
+        cc.chiSquaredMax = chiSquaredMax;
+        cc.chiSquaredMin = chiSquaredMin;
+        cc.eccentricity = eccentricity;
+        cc.compactness = compactness;
+        cc.imageWidth = imageWidth;
+        cc.imageHeight = imageHeight;
+        cc.medialAxisMetric = medialAxisMetric;
+        cc.unavailable = unavailable;
+        cc.computed = computed;
+        return cc;
+    }
+
+    private static IntList copyOf(IntList list) {
+        IntList copy = new IntList(list.size());
+        for (int i = 0; i < list.size(); i++) {
+            copy.add(list.values[i]);
+        }
+        return copy;
     }
 
     /**
      * A method to print all metrics about the item
      */
     public void printObject() {
-        println("area: " + pixels.size());
-        println("centroid(xbar, ybar): " + centroidX + "," + centroidY);
-        println("bounding box [i,j]: TopLeft: " + top + "," + left + " BottomRight: " + (top + height + 2) + "," + (left + width + 2));
+        calculate(EnumSet.allOf(Feature.class));
+        System.out.println("area: " + area);
+        System.out.println("centroid(xbar, ybar): " + centroidX + "," + centroidY);
+        System.out.println("bounding box [i,j]: TopLeft: " + top + "," + left + " BottomRight: " + (top + height + 2) + "," + (left + width + 2));
 
-        println("axis of elongation: sinTwoTheta: " + String.format("%.4f", sinTwoTheta));
-        println("\t" + "cosTwoTheta: " + String.format("%.4f", cosTwoTheta));
-        println("\t" + "chiSquaredMin: " + String.format("%.4f", chiSquaredMin));
-        println("\t" + "second-order moments: a:" + String.format("%.1f", a) + " b:" + String.format("%.1f", b) + " c:" + String.format("%.1f", c));
+        System.out.println("axis of elongation: sinTwoTheta: " + String.format("%.4f", sinTwoTheta));
+        System.out.println("\t" + "cosTwoTheta: " + String.format("%.4f", cosTwoTheta));
+        System.out.println("\t" + "chiSquaredMin: " + String.format("%.4f", chiSquaredMin));
+        System.out.println("\t" + "second-order moments: a:" + String.format("%.1f", a) + " b:" + String.format("%.1f", b) + " c:" + String.format("%.1f", c));
 
-        println("eccentricity: " + String.format("%.4f", eccentricity));
-        println("perimeter (by simple count): " + perimeter.size());
-        println("compactness: " + String.format("%.4f", compactness));
+        System.out.println("eccentricity: " + String.format("%.4f", eccentricity));
+        if (isAvailable(Feature.PERIMETER)) {
+            System.out.println("perimeter (by simple count): " + perimeter.size());
+            System.out.println("compactness: " + String.format("%.4f", compactness));
+        } else {
+            System.out.println("perimeter and compactness: not available in features-only mode");
+        }
     }
 
-    public int getWidth() { return width; }
+    /**
+     * Writes the metrics, perimeter and medial axis (not the pixels, which the label image holds) for ResultCache
+     */
+    void write(DataOutput out) throws IOException {
+        //read before the values so a metric another thread is computing is written as missing
+        int done = computed;
+        out.writeInt(label);
+        out.writeInt(area);
+        out.writeBoolean(!pixels.isEmpty());
+        out.writeInt(width);
+        out.writeInt(height);
+        out.writeInt(top);
+        out.writeInt(left);
+        out.writeInt(centroidX);
+        out.writeInt(centroidY);
+        out.writeFloat(a);
+        out.writeFloat(b);
+        out.writeFloat(c);
+        out.writeDouble(sinTwoTheta);
+        out.writeDouble(cosTwoTheta);
+        out.writeDouble(chiSquaredMax);
+        out.writeDouble(chiSquaredMin);
+        out.writeDouble(eccentricity);
+        out.writeDouble(compactness);
+        out.writeInt(imageWidth);
+        out.writeInt(imageHeight);
+        out.writeByte(medialAxisMetric.ordinal());
+        out.writeInt(done);
+        out.writeInt(unavailable);
+        out.writeInt(perimeter.size());
+        for (int i = 0; i < perimeter.size(); i++) {
+            out.writeInt(perimeter.values[i]);
+        }
+        out.writeInt(skeletonSize);
+        for (int i = 0; i < skeletonSize; i++) {
+            out.writeInt(skeletonPixels[i]);
+            out.writeShort(skeletonRadii[i]);
+        }
+    }
 
-    public int getHeight() { return height; }
+    /**
+     * Reads what write wrote, returns whether the component had pixels (to be filled in from the label image)
+     * throws StreamCorruptedException when a label or size is out of range
+     */
+    boolean read(DataInput in) throws IOException {
+        label = in.readInt();
+        area = in.readInt();
+        if (label < 2 || label > Short.MAX_VALUE || area < 1) {
+            throw new StreamCorruptedException("Component " + label + " with area " + area);
+        }
+        boolean hasPixels = in.readBoolean();
+        width = in.readInt();
+        height = in.readInt();
+        top = in.readInt();
+        left = in.readInt();
+        centroidX = in.readInt();
+        centroidY = in.readInt();
+        a = in.readFloat();
+        b = in.readFloat();
+        c = in.readFloat();
+        sinTwoTheta = in.readDouble();
+        cosTwoTheta = in.readDouble();
+        chiSquaredMax = in.readDouble();
+        chiSquaredMin = in.readDouble();
+        eccentricity = in.readDouble();
+        compactness = in.readDouble();
+        imageWidth = in.readInt();
+        imageHeight = in.readInt();
+        medialAxisMetric = DistanceTransform.Metric.values()[in.readByte()];
+        computed = in.readInt();
+        unavailable = in.readInt();
+        int perimeterSize = in.readInt();
+        //the perimeter and the medial axis are both subsets of the pixels
+        if (perimeterSize < 0 || perimeterSize > area) {
+            throw new StreamCorruptedException("Perimeter of " + perimeterSize + " pixels for an area of " + area);
+        }
+        perimeter = new IntList(perimeterSize);
+        for (int i = 0; i < perimeterSize; i++) {
+            perimeter.add(in.readInt());
+        }
+        skeletonSize = in.readInt();
+        if (skeletonSize < 0 || skeletonSize > area) {
+            throw new StreamCorruptedException("Medial axis of " + skeletonSize + " pixels for an area of " + area);
+        }
+        skeletonPixels = new int[skeletonSize];
+        skeletonRadii = new short[skeletonSize];
+        for (int i = 0; i < skeletonSize; i++) {
+            skeletonPixels[i] = in.readInt();
+            skeletonRadii[i] = in.readShort();
+        }
+        return hasPixels;
+    }
 
-    public int getTop() { return top; }
+    /**
+     * Rough number of bytes the component holds on to, for the cache size bound
+     */
+    long estimateSize() {
+        return 128 + 4L * (pixels.values.length + perimeter.values.length) + 6L * skeletonPixels.length;
+    }
 
-    public int getLeft() { return left; }
+    public int getLabel() { return label; }
 
-    public int getCentroidX() { return centroidX; }
+    public int getArea() { return area; }
 
-    public int getCentroidY() { return centroidY; }
+    public int getWidth() {
+        ensure(Feature.BOUNDS);
+        return width;
+    }
+
+    public int getHeight() {
+        ensure(Feature.BOUNDS);
+        return height;
+    }
+
+    public int getTop() {
+        ensure(Feature.BOUNDS);
+        return top;
+    }
+
+    public int getLeft() {
+        ensure(Feature.BOUNDS);
+        return left;
+    }
+
+    public int getCentroidX() {
+        ensure(Feature.CENTROID);
+        return centroidX;
+    }
+
+    public int getCentroidY() {
+        ensure(Feature.CENTROID);
+        return centroidY;
+    }
+
+    public float getA() {
+        ensure(Feature.AXIS);
+        return a;
+    }
+
+    public float getB() {
+        ensure(Feature.AXIS);
+        return b;
+    }
+
+    public float getC() {
+        ensure(Feature.AXIS);
+        return c;
+    }
+
+    public double getSinTwoTheta() {
+        ensure(Feature.AXIS);
+        return sinTwoTheta;
+    }
+
+    public double getCosTwoTheta() {
+        ensure(Feature.AXIS);
+        return cosTwoTheta;
+    }
+
+    public double getChiSquaredMax() {
+        ensure(Feature.AXIS);
+        return chiSquaredMax;
+    }
+
+    public double getChiSquaredMin() {
+        ensure(Feature.AXIS);
+        return chiSquaredMin;
+    }
+
+    public double getEccentricity() {
+        ensure(Feature.AXIS);
+        return eccentricity;
+    }
+
+    public int getPerimeterSize() {
+        ensure(Feature.PERIMETER);
+        return perimeter.size();
+    }
+
+    public int getSkeletonSize() {
+        ensure(Feature.MEDIAL_AXIS);
+        return skeletonSize;
+    }
+
+    public int getSkeletonPixel(int i) {
+        ensure(Feature.MEDIAL_AXIS);
+        return skeletonPixels[i];
+    }
+
+    public short getSkeletonRadius(int i) {
+        ensure(Feature.MEDIAL_AXIS);
+        return skeletonRadii[i];
+    }
+
+    public double getCompactness() {
+        ensure(Feature.COMPACTNESS);
+        return compactness;
+    }
 
 }
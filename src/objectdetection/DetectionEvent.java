@@ -0,0 +1,52 @@
+package objectdetection;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * @author Andrew King
+ *         Flight Recorder event for a whole detection with its counts, the stages are recorded as StageEvents
+ */
+@Name("objectdetection.Detection")
+@Label("Detection")
+@Category("Object Detection")
+@Description("One call of ObjectDetector.detect")
+@StackTrace(false)
+final class DetectionEvent extends Event {
+
+    @Label("Width")
+    int width;
+
+    @Label("Height")
+    int height;
+
+    @Label("Threshold Method")
+    String thresholdMethod;
+
+    @Label("Allocated")
+    @DataAmount
+    long allocated;
+
+    @Label("Foreground Pixels")
+    long foregroundPixels;
+
+    @Label("Provisional Labels")
+    long provisionalLabels;
+
+    @Label("Equivalences Merged")
+    long equivalencesMerged;
+
+    @Label("Components Before Filter")
+    long componentsBeforeFilter;
+
+    @Label("Components After Filter")
+    long componentsAfterFilter;
+
+    @Label("Medial Axis Pixels")
+    long medialAxisPixels;
+}
@@ -0,0 +1,50 @@
+package objectdetection;
+
+/**
+ * @author Andrew King
+ *         Receives the timings and counts of every detection run by a detector it is set on (see
+ *         ObjectDetector.setMetrics). Calls are made on the thread running the detection, so an implementation shared
+ *         by several detectors has to be thread safe. MetricsRecorder is the one to poll
+ */
+public interface DetectionMetrics {
+
+    /**
+     * The stages of detect, in order. LABEL is the first pass and the building of the components, in features-only
+     * mode it includes the size filter and there are no separate SIZE_FILTER or CALCULATIONS stages
+     */
+    enum Stage {
+        LOAD,
+        THRESHOLD,
+        LABEL,
+        SIZE_FILTER,
+        CALCULATIONS
+    }
+
+    enum Counter {
+        FOREGROUND_PIXELS,
+        //labels handed out by the first pass (per pixel, per stripe or per run depending on the labeler)
+        PROVISIONAL_LABELS,
+        //unions that joined two sets, so provisional labels = components + merges
+        EQUIVALENCES_MERGED,
+        COMPONENTS_BEFORE_FILTER,
+        COMPONENTS_AFTER_FILTER,
+        //total length of the medial axes found by the calculations
+        MEDIAL_AXIS_PIXELS
+    }
+
+    /**
+     * A stage finished, allocatedBytes is what the detecting thread allocated during it (-1 if the JVM can not tell)
+     */
+    void stageCompleted(Stage stage, long nanos, long allocatedBytes);
+
+    /**
+     * A count of the detection that just ran
+     */
+    void counted(Counter counter, long value);
+
+    /**
+     * The detection finished, called after all of its stages and counts
+     */
+    default void detectionCompleted(int width, int height) {
+    }
+}
@@ -0,0 +1,230 @@
+package objectdetection;
+
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * @author Andrew King
+ *         Immutable settings for a detection run, created through the builder
+ */
+public final class DetectionParameters {
+
+    private final ThresholdMethod thresholdMethod;
+    //threshold used by the simple method
+    private final int threshold;
+    //mask size used by the adaptive method
+    private final int adaptiveWindow;
+    //sliding window size used by the Bradley and Sauvola methods
+    private final int localWindow;
+    //Bradley: a pixel is foreground when it is this fraction darker than its window mean
+    private final double bradleySensitivity;
+    //Sauvola: how much the window standard deviation lowers the threshold below the window mean
+    private final double sauvolaK;
+    //neighbours (4 or 8) through which double thresholding grows the foreground into the uncertain pixels
+    private final int hysteresisConnectivity;
+    //components smaller than this are sent to the background
+    private final int filterSize;
+    //only accumulate area, centroid, bounds and moments instead of building pixel lists
+    private final boolean featuresOnly;
+    //number of horizontal stripes labeled in parallel (1 labels the whole image with a single raster scan)
+    private final int labelingStripes;
+    //label runs of foreground pixels instead of single pixels (takes precedence over the labeling stripes)
+    private final boolean runLengthLabeling;
+    //distance used to find the medial axis of each component
+    private final DistanceTransform.Metric medialAxisMetric;
+    //metrics computed for every component by the calculations, the others are computed when first asked for
+    private final Set<Feature> features;
+
+    private DetectionParameters(Builder builder) {
+        thresholdMethod = builder.thresholdMethod;
+        threshold = builder.threshold;
+        adaptiveWindow = builder.adaptiveWindow;
+        localWindow = builder.localWindow;
+        bradleySensitivity = builder.bradleySensitivity;
+        sauvolaK = builder.sauvolaK;
+        hysteresisConnectivity = builder.hysteresisConnectivity;
+        filterSize = builder.filterSize;
+        featuresOnly = builder.featuresOnly;
+        labelingStripes = builder.labelingStripes;
+        runLengthLabeling = builder.runLengthLabeling;
+        medialAxisMetric = builder.medialAxisMetric;
+        features = Collections.unmodifiableSet(EnumSet.copyOf(builder.features));
+    }
+
+    public static Builder builder() { return new Builder(); }
+
+    public ThresholdMethod getThresholdMethod() { return thresholdMethod; }
+
+    public int getThreshold() { return threshold; }
+
+    public int getAdaptiveWindow() { return adaptiveWindow; }
+
+    public int getLocalWindow() { return localWindow; }
+
+    public double getBradleySensitivity() { return bradleySensitivity; }
+
+    public double getSauvolaK() { return sauvolaK; }
+
+    public int getHysteresisConnectivity() { return hysteresisConnectivity; }
+
+    public int getFilterSize() { return filterSize; }
+
+    public boolean isFeaturesOnly() { return featuresOnly; }
+
+    public int getLabelingStripes() { return labelingStripes; }
+
+    public boolean isRunLengthLabeling() { return runLengthLabeling; }
+
+    public DistanceTransform.Metric getMedialAxisMetric() { return medialAxisMetric; }
+
+    public Set<Feature> getFeatures() { return features; }
+
+    /**
+     * Two parameter sets are equal when every setting is, so they can key cached results
+     */
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof DetectionParameters)) {
+            return false;
+        }
+        DetectionParameters other = (DetectionParameters) o;
+        return threshold == other.threshold && adaptiveWindow == other.adaptiveWindow && localWindow == other.localWindow
+                && Double.compare(bradleySensitivity, other.bradleySensitivity) == 0
+                && Double.compare(sauvolaK, other.sauvolaK) == 0
+                && hysteresisConnectivity == other.hysteresisConnectivity && filterSize == other.filterSize
+                && featuresOnly == other.featuresOnly && labelingStripes == other.labelingStripes
+                && runLengthLabeling == other.runLengthLabeling && thresholdMethod == other.thresholdMethod
+                && medialAxisMetric == other.medialAxisMetric && features.equals(other.features);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(thresholdMethod, threshold, adaptiveWindow, localWindow, bradleySensitivity, sauvolaK,
+                hysteresisConnectivity, filterSize, featuresOnly, labelingStripes, runLengthLabeling, medialAxisMetric,
+                features);
+    }
+
+    @Override
+    public String toString() {
+        return "DetectionParameters{thresholdMethod=" + thresholdMethod + ", threshold=" + threshold
+                + ", adaptiveWindow=" + adaptiveWindow + ", localWindow=" + localWindow
+                + ", bradleySensitivity=" + bradleySensitivity + ", sauvolaK=" + sauvolaK
+                + ", hysteresisConnectivity=" + hysteresisConnectivity + ", filterSize=" + filterSize
+                + ", featuresOnly=" + featuresOnly + ", labelingStripes=" + labelingStripes
+                + ", runLengthLabeling=" + runLengthLabeling + ", medialAxisMetric=" + medialAxisMetric
+                + ", features=" + features + "}";
+    }
+
+    public static final class Builder {
+
+        private ThresholdMethod thresholdMethod = ThresholdMethod.SIMPLE;
+        private int threshold = 128;
+        private int adaptiveWindow = 128;
+        private int localWindow = 31;
+        private double bradleySensitivity = 0.15;
+        private double sauvolaK = 0.5;
+        private int hysteresisConnectivity = 4;
+        private int filterSize = 1000;
+        private boolean featuresOnly = false;
+        private int labelingStripes = 1;
+        private boolean runLengthLabeling = false;
+        private DistanceTransform.Metric medialAxisMetric = DistanceTransform.Metric.CITY_BLOCK;
+        private EnumSet<Feature> features = EnumSet.allOf(Feature.class);
+
+        private Builder() {
+        }
+
+        public Builder thresholdMethod(ThresholdMethod thresholdMethod) {
+            this.thresholdMethod = thresholdMethod;
+            return this;
+        }
+
+        public Builder threshold(int threshold) {
+            this.threshold = threshold;
+            return this;
+        }
+
+        public Builder adaptiveWindow(int adaptiveWindow) {
+            //the adaptive threshold takes the window as a short
+            if (adaptiveWindow < 1 || adaptiveWindow > Short.MAX_VALUE) {
+                throw new IllegalArgumentException("Adaptive window must be between 1 and " + Short.MAX_VALUE + " but was " + adaptiveWindow);
+            }
+            this.adaptiveWindow = adaptiveWindow;
+            return this;
+        }
+
+        public Builder localWindow(int localWindow) {
+            if (localWindow < 1) {
+                throw new IllegalArgumentException("Local window must be at least 1 but was " + localWindow);
+            }
+            this.localWindow = localWindow;
+            return this;
+        }
+
+        public Builder bradleySensitivity(double bradleySensitivity) {
+            this.bradleySensitivity = bradleySensitivity;
+            return this;
+        }
+
+        public Builder sauvolaK(double sauvolaK) {
+            this.sauvolaK = sauvolaK;
+            return this;
+        }
+
+        public Builder hysteresisConnectivity(int hysteresisConnectivity) {
+            if (hysteresisConnectivity != 4 && hysteresisConnectivity != 8) {
+                throw new IllegalArgumentException("Connectivity must be 4 or 8 but was " + hysteresisConnectivity);
+            }
+            this.hysteresisConnectivity = hysteresisConnectivity;
+            return this;
+        }
+
+        public Builder filterSize(int filterSize) {
+            this.filterSize = filterSize;
+            return this;
+        }
+
+        public Builder featuresOnly(boolean featuresOnly) {
+            this.featuresOnly = featuresOnly;
+            return this;
+        }
+
+        public Builder labelingStripes(int labelingStripes) {
+            if (labelingStripes < 1) {
+                throw new IllegalArgumentException("Need at least one labeling stripe but got " + labelingStripes);
+            }
+            this.labelingStripes = labelingStripes;
+            return this;
+        }
+
+        public Builder runLengthLabeling(boolean runLengthLabeling) {
+            this.runLengthLabeling = runLengthLabeling;
+            return this;
+        }
+
+        public Builder medialAxisMetric(DistanceTransform.Metric medialAxisMetric) {
+            this.medialAxisMetric = medialAxisMetric;
+            return this;
+        }
+
+        /**
+         * Selects the metrics the calculations compute, all of them by default
+         */
+        public Builder features(Set<Feature> features) {
+            this.features = features.isEmpty() ? EnumSet.noneOf(Feature.class) : EnumSet.copyOf(features);
+            return this;
+        }
+
+        public Builder features(Feature first, Feature... rest) {
+            this.features = EnumSet.of(first, rest);
+            return this;
+        }
+
+        public DetectionParameters build() { return new DetectionParameters(this); }
+    }
+}
@@ -0,0 +1,66 @@
+package objectdetection;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * @author Andrew King
+ *         Outcome of a detection run: the label image (0 background, 2 and up component labels) and the components
+ *         that survived the size filter, with a spatial index over them built on first use. Immutable and safe to
+ *         share between threads: the labels are our own copy, the list can not be changed and the components are
+ *         read-only (see ConnectedComponent), metrics left for later are computed once under the component's lock
+ */
+public final class DetectionResult {
+
+    private final int width;
+    private final int height;
+    private final short[] labels;
+    private final List<ConnectedComponent> components;
+    private ComponentIndex index;
+
+    DetectionResult(int width, int height, short[] labels, List<ConnectedComponent> components) {
+        this.width = width;
+        this.height = height;
+        //the detector reuses its working array so keep our own copy
+        this.labels = labels.clone();
+        for (ConnectedComponent cc : components) {
+            cc.readOnly = true;
+        }
+        this.components = Collections.unmodifiableList(new ArrayList<>(components));
+    }
+
+    /**
+     * The same labels with other components, for instance the skeletonized ones the viewer shows
+     */
+    DetectionResult withComponents(List<ConnectedComponent> components) {
+        return new DetectionResult(width, height, labels, components);
+    }
+
+    public int getWidth() { return width; }
+
+    public int getHeight() { return height; }
+
+    public int getItemCount() { return components.size(); }
+
+    public List<ConnectedComponent> getComponents() { return components; }
+
+    public short getLabel(int index) { return labels[index]; }
+
+    public short getLabel(int x, int y) { return labels[y * width + x]; }
+
+    /**
+     * Grid index over the bounding boxes of the components and point lookups through the labels
+     */
+    public synchronized ComponentIndex getIndex() {
+        if (index == null) {
+            index = new ComponentIndex(this);
+        }
+        return index;
+    }
+
+    /**
+     * Returns a copy of the label image
+     */
+    public short[] getLabels() { return labels.clone(); }
+}
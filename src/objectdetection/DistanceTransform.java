@@ -0,0 +1,188 @@
+package objectdetection;
+
+import java.util.Arrays;
+
+/**
+ * @author Andrew King
+ *         Distance transforms used by the medial axis calculations. The transforms work in place on a
+ *         rectangular region [x0, x1] x [y0, y1] (inclusive) of a row-major array with the given stride: non-zero
+ *         entries are object pixels, zero entries and everything outside the region count as background
+ *         (the Euclidean transform borrows int slots 0-2 and double slot 0 of the thread's ScratchBuffers)
+ */
+public final class DistanceTransform {
+
+    public enum Metric {
+        //4-connected distance, the same layers the old iterative transform produced
+        CITY_BLOCK,
+        //exact Euclidean distance rounded up to the next whole pixel
+        EUCLIDEAN
+    }
+
+    private DistanceTransform() {
+    }
+
+    public static void transform(Metric metric, short[] dist, int stride, int x0, int y0, int x1, int y1) {
+        if (metric == Metric.EUCLIDEAN) {
+            euclidean(dist, stride, x0, y0, x1, y1);
+        } else {
+            cityBlock(dist, stride, x0, y0, x1, y1);
+        }
+    }
+
+    /**
+     * City-block distance to the nearest background pixel in one forward (N, W) and one backward (S, E) sweep
+     */
+    public static void cityBlock(short[] dist, int stride, int x0, int y0, int x1, int y1) {
+        for (int y = y0; y <= y1; y++) {
+            for (int x = x0, i = y * stride + x0; x <= x1; x++, i++) {
+                if (dist[i] != 0) {
+                    int north = y > y0 ? dist[i - stride] : 0;
+                    int west = x > x0 ? dist[i - 1] : 0;
+                    dist[i] = (short) (Math.min(north, west) + 1);
+                }
+            }
+        }
+        for (int y = y1; y >= y0; y--) {
+            for (int x = x1, i = y * stride + x1; x >= x0; x--, i--) {
+                if (dist[i] != 0) {
+                    int south = y < y1 ? dist[i + stride] : 0;
+                    int east = x < x1 ? dist[i + 1] : 0;
+                    int fromBelow = Math.min(south, east) + 1;
+                    if (fromBelow < dist[i]) {
+                        dist[i] = (short) fromBelow;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Exact Euclidean distance (Felzenszwalb and Huttenlocher): a column pass finds the vertical distance to the
+     * nearest background pixel, then a row pass takes the lower envelope of the parabolas those distances describe
+     */
+    public static void euclidean(short[] dist, int stride, int x0, int y0, int x1, int y1) {
+        int regionWidth = x1 - x0 + 1;
+        int regionHeight = y1 - y0 + 1;
+        //squared vertical distances, the row and column just outside the region are background
+        ScratchBuffers scratch = ScratchBuffers.get();
+        int[] columnDist = scratch.ints(0, regionWidth * regionHeight);
+        for (int x = 0; x < regionWidth; x++) {
+            int last = -1;
+            for (int y = 0; y < regionHeight; y++) {
+                if (dist[(y0 + y) * stride + x0 + x] == 0) {
+                    last = y;
+                }
+                columnDist[y * regionWidth + x] = y - last;
+            }
+            last = regionHeight;
+            for (int y = regionHeight - 1; y >= 0; y--) {
+                if (dist[(y0 + y) * stride + x0 + x] == 0) {
+                    last = y;
+                }
+                int down = last - y;
+                int up = columnDist[y * regionWidth + x];
+                columnDist[y * regionWidth + x] = Math.min(up, down) * Math.min(up, down);
+            }
+        }
+        //row pass, sites -1 and regionWidth are the background just outside the region
+        int sites = regionWidth + 2;
+        int[] f = scratch.ints(1, sites);
+        int[] v = scratch.ints(2, sites);
+        double[] z = scratch.doubles(0, sites + 1);
+        for (int y = 0; y < regionHeight; y++) {
+            for (int s = 0; s < sites; s++) {
+                f[s] = s == 0 || s == sites - 1 ? 0 : columnDist[y * regionWidth + s - 1];
+            }
+            int k = 0;
+            v[0] = 0;
+            z[0] = Double.NEGATIVE_INFINITY;
+            z[1] = Double.POSITIVE_INFINITY;
+            for (int q = 1; q < sites; q++) {
+                double crossing = ((f[q] + (double) q * q) - (f[v[k]] + (double) v[k] * v[k])) / (2.0 * q - 2.0 * v[k]);
+                while (crossing <= z[k]) {
+                    k--;
+                    crossing = ((f[q] + (double) q * q) - (f[v[k]] + (double) v[k] * v[k])) / (2.0 * q - 2.0 * v[k]);
+                }
+                k++;
+                v[k] = q;
+                z[k] = crossing;
+                z[k + 1] = Double.POSITIVE_INFINITY;
+            }
+            k = 0;
+            for (int q = 1; q < sites - 1; q++) {
+                while (z[k + 1] < q) {
+                    k++;
+                }
+                int i = (y0 + y) * stride + x0 + q - 1;
+                if (dist[i] != 0) {
+                    long squared = (long) (q - v[k]) * (q - v[k]) + f[v[k]];
+                    dist[i] = (short) Math.ceil(Math.sqrt(squared));
+                }
+            }
+        }
+    }
+
+    /**
+     * Inverse of the city-block transform: every seed holds a radius and every pixel ends up with the largest radius
+     * minus distance it can reach, pixels left above zero are inside the shape. The seeds are bucketed by radius and
+     * the buckets are drained from maxRadius down, so each pixel is expanded once, when it gets its final value
+     * (borrows int slots 0-2 of the thread's ScratchBuffers, so the seeds must live in another slot)
+     */
+    public static void reconstruct(short[] radii, int width, int height, int[] seeds, int seedCount, int maxRadius) {
+        ScratchBuffers scratch = ScratchBuffers.get();
+        //counting sort of the seeds by radius: bucket[r] is where the seeds of radius r start in the sorted part
+        int buckets = maxRadius + 2;
+        int[] sorted = scratch.ints(0, buckets + seedCount);
+        Arrays.fill(sorted, 0, buckets, 0);
+        for (int i = 0; i < seedCount; i++) {
+            sorted[radii[seeds[i]] + 1]++;
+        }
+        for (int r = 1; r < buckets; r++) {
+            sorted[r] += sorted[r - 1];
+        }
+        for (int i = 0; i < seedCount; i++) {
+            sorted[buckets + sorted[radii[seeds[i]]]++] = seeds[i];
+        }
+        //after the placement loop bucket r ends at sorted[r], so it starts at sorted[r - 1]
+        int area = width * height;
+        int[] frontier = scratch.ints(1, area);
+        int[] next = scratch.ints(2, area);
+        int frontierSize = 0;
+        for (int level = maxRadius; level > 1; level--) {
+            //seeds of this radius join the pixels reached from the level above, unless something larger reached them
+            for (int s = sorted[level - 1]; s < sorted[level]; s++) {
+                int pixel = sorted[buckets + s];
+                if (radii[pixel] == level) {
+                    frontier[frontierSize++] = pixel;
+                }
+            }
+            //every pixel raised here gets its final value, it is queued once and expanded on the next level
+            int nextSize = 0;
+            short child = (short) (level - 1);
+            for (int f = 0; f < frontierSize; f++) {
+                int pixel = frontier[f];
+                int x = pixel % width;
+                if (pixel >= width && radii[pixel - width] < child) {
+                    radii[pixel - width] = child;
+                    next[nextSize++] = pixel - width;
+                }
+                if (pixel + width < area && radii[pixel + width] < child) {
+                    radii[pixel + width] = child;
+                    next[nextSize++] = pixel + width;
+                }
+                if (x > 0 && radii[pixel - 1] < child) {
+                    radii[pixel - 1] = child;
+                    next[nextSize++] = pixel - 1;
+                }
+                if (x < width - 1 && radii[pixel + 1] < child) {
+                    radii[pixel + 1] = child;
+                    next[nextSize++] = pixel + 1;
+                }
+            }
+            int[] swap = frontier;
+            frontier = next;
+            next = swap;
+            frontierSize = nextSize;
+        }
+    }
+}
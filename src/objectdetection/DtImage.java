@@ -0,0 +1,79 @@
+package objectdetection;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * @author Andrew King
+ *         Memory-mapped reader for DT-IMAGE files (a 512 byte header followed by one unsigned byte per pixel)
+ *         the pixels are handed out as a read-only ByteBuffer over the mapping so nothing is copied
+ */
+public final class DtImage {
+
+    public static final int HEADER_SIZE = 512;
+    static final String MAGIC = "DT-IMAGE";
+    //offsets of the big-endian row and column counts in the header
+    static final int ROWS_OFFSET = 0x2C;
+    static final int COLUMNS_OFFSET = 0x2E;
+
+    private final int width;
+    private final int height;
+    private final ByteBuffer pixels;
+
+    private DtImage(int width, int height, ByteBuffer pixels) {
+        this.width = width;
+        this.height = height;
+        this.pixels = pixels;
+    }
+
+    /**
+     * Maps the file and parses its header, the mapping stays valid after the channel is closed
+     */
+    public static DtImage open(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            return parse(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()), path.toString());
+        }
+    }
+
+    /**
+     * Parses a whole DT-IMAGE file held in the buffer (from its current position)
+     */
+    public static DtImage parse(ByteBuffer file, String name) throws IOException {
+        ByteBuffer header = file.slice().order(ByteOrder.BIG_ENDIAN);
+        if (header.remaining() < HEADER_SIZE) {
+            throw new IOException(name + " is too short to hold a DT-IMAGE header");
+        }
+        for (int i = 0; i < MAGIC.length(); i++) {
+            if (header.get(i) != MAGIC.charAt(i)) {
+                throw new IOException(name + " does not start with " + MAGIC);
+            }
+        }
+        int payload = header.remaining() - HEADER_SIZE;
+        int height = Short.toUnsignedInt(header.getShort(ROWS_OFFSET));
+        int width = Short.toUnsignedInt(header.getShort(COLUMNS_OFFSET));
+        //if the header dimensions do not describe the payload fall back to a square image
+        if (width == 0 || height == 0 || (long) width * height > payload) {
+            int side = (int) Math.sqrt(payload);
+            if (side == 0 || side * side != payload) {
+                throw new IOException(name + " has header dimensions " + width + "x" + height + " that do not fit its " + payload + " pixel bytes");
+            }
+            width = side;
+            height = side;
+        }
+        header.position(HEADER_SIZE).limit(HEADER_SIZE + width * height);
+        return new DtImage(width, height, header.slice().asReadOnlyBuffer());
+    }
+
+    public int getWidth() { return width; }
+
+    public int getHeight() { return height; }
+
+    /**
+     * Returns the pixels, one unsigned byte each in row order, starting at position 0
+     */
+    public ByteBuffer getPixels() { return pixels.duplicate(); }
+}
@@ -1,60 +1,65 @@
 package objectdetection;
 
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Collections;
+import java.util.Arrays;
 
 /**
  * @author Andrew King
  *         Simple Data Structure for building an equivalence table for use in sequential connected component algorithm
+ *         Backed by a primitive union-find: parent[label] points towards the lowest label of its set, so the root of
+ *         every set is also its lowest label and find() resolves in near-constant time thanks to path halving
+ *         Not thread safe, the parallel labeler gives every stripe a table of its own and offsets them into one after
  */
 public class EquivalenceTable {
 
-    List<List<Short>> listOfLists = new ArrayList<List<Short>>();
+    //parent of each label, a label that is its own parent is the root (and lowest label) of its set, 0 means unused
+    int[] parent;
 
     //what label number we are currently assigning
     public short labelCount = 2;
 
-    //creates a new list in the list and adds the variable to it
-    public void createNewLabel(short newInt) {
-        List<Short> myList = new ArrayList();
-        myList.add(newInt);
-        listOfLists.add(myList);
+    public EquivalenceTable() {
+        this(256);
     }
 
+    public EquivalenceTable(int initialCapacity) {
+        parent = new int[Math.max(initialCapacity, 2)];
+    }
 
-    public void assignNewValue(short west, short north) {
-        int indexOfNorth = find(north);
-        int indexOfWest = find(west);
-        //if they arent in the same list then add all items from one list and then remove it (since if one of them are equiv then they all are)
-        if (indexOfNorth != indexOfWest) {
-            listOfLists.get(indexOfNorth).addAll(listOfLists.get(indexOfWest));
-            listOfLists.remove(indexOfWest);
+    //creates a new set containing only the label
+    public void createNewLabel(int newInt) {
+        if (newInt >= parent.length) {
+            parent = Arrays.copyOf(parent, Math.max(parent.length * 2, newInt + 1));
         }
+        parent[newInt] = newInt;
     }
 
-    //find what row x is
-    public int find(short x) {
-        for (int i = 0; i < listOfLists.size(); i++) {
-            if (listOfLists.get(i).contains(x)) {
-                return i;
+    public void assignNewValue(int west, int north) {
+        int rootOfNorth = find(north);
+        int rootOfWest = find(west);
+        //if they arent in the same set then hang the higher root under the lower one so the root stays the min
+        if (rootOfNorth != rootOfWest) {
+            if (rootOfNorth < rootOfWest) {
+                parent[rootOfWest] = rootOfNorth;
+            } else {
+                parent[rootOfNorth] = rootOfWest;
             }
         }
-        //could not find
-        System.out.println("Error! We could not find " + x);
-        return -2;
     }
 
-    public short findLowest(short label) {
-        int i = find(label);
-        short min = Collections.min(listOfLists.get(i));
-        return min;
+    //find the root of x, halving the path as we go
+    public int find(int x) {
+        while (parent[x] != x) {
+            parent[x] = parent[parent[x]];
+            x = parent[x];
+        }
+        return x;
     }
 
-    //because we assigned the min we have to return the min when we condense
-    public Short getLabel(int i) { return Collections.min(listOfLists.get(i)); }
+    //because we always union towards the min the root is the lowest label
+    public short findLowest(int label) { return (short) find(label); }
 
-    public int getNumOfObjects() { return listOfLists.size(); }
+    //one past the highest label the table can currently hold
+    public int getCapacity() { return parent.length; }
 
     public short getLabelNumber() { return labelCount++; }
 }
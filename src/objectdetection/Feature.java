@@ -0,0 +1,23 @@
+package objectdetection;
+
+/**
+ * @author Andrew King
+ *         The per-component metrics that can be selected for the calculations (see DetectionParameters.features).
+ *         Selected metrics are computed by the detector, the rest are computed by the component the first time they
+ *         are asked for. The area is always available, the perimeter, medial axis and compactness are not for
+ *         features-only components (see ConnectedComponent.isAvailable)
+ */
+public enum Feature {
+    CENTROID,
+    //bounding box, width and height
+    BOUNDS,
+    //second-order moments, orientation and eccentricity (needs the centroid)
+    AXIS,
+    PERIMETER,
+    //needs the bounds
+    MEDIAL_AXIS,
+    //needs the perimeter
+    COMPACTNESS;
+
+    final int mask = 1 << ordinal();
+}
@@ -0,0 +1,162 @@
+package objectdetection;
+
+import java.util.Arrays;
+
+/**
+ * @author Andrew King
+ *         Running per-label sums (area, coordinate sums, second-order sums and extremes) used to compute component
+ *         features while labeling, so the pixels of a component never have to be stored or revisited
+ */
+public class FeatureAccumulator {
+
+    //sums indexed by label
+    long[] area, sumX, sumY, sumXX, sumXY, sumYY;
+    //extremes indexed by label
+    int[] minX, minY, maxX, maxY;
+
+    public FeatureAccumulator(int initialCapacity) {
+        int capacity = Math.max(initialCapacity, 2);
+        area = new long[capacity];
+        sumX = new long[capacity];
+        sumY = new long[capacity];
+        sumXX = new long[capacity];
+        sumXY = new long[capacity];
+        sumYY = new long[capacity];
+        minX = new int[capacity];
+        minY = new int[capacity];
+        maxX = new int[capacity];
+        maxY = new int[capacity];
+        Arrays.fill(minX, Integer.MAX_VALUE);
+        Arrays.fill(minY, Integer.MAX_VALUE);
+        Arrays.fill(maxX, Integer.MIN_VALUE);
+        Arrays.fill(maxY, Integer.MIN_VALUE);
+    }
+
+    /**
+     * Grows the arrays so the label can be used
+     */
+    public void ensureCapacity(int label) {
+        if (label < area.length) {
+            return;
+        }
+        int oldLength = area.length;
+        int capacity = Math.max(oldLength * 2, label + 1);
+        area = Arrays.copyOf(area, capacity);
+        sumX = Arrays.copyOf(sumX, capacity);
+        sumY = Arrays.copyOf(sumY, capacity);
+        sumXX = Arrays.copyOf(sumXX, capacity);
+        sumXY = Arrays.copyOf(sumXY, capacity);
+        sumYY = Arrays.copyOf(sumYY, capacity);
+        minX = Arrays.copyOf(minX, capacity);
+        minY = Arrays.copyOf(minY, capacity);
+        maxX = Arrays.copyOf(maxX, capacity);
+        maxY = Arrays.copyOf(maxY, capacity);
+        Arrays.fill(minX, oldLength, capacity, Integer.MAX_VALUE);
+        Arrays.fill(minY, oldLength, capacity, Integer.MAX_VALUE);
+        Arrays.fill(maxX, oldLength, capacity, Integer.MIN_VALUE);
+        Arrays.fill(maxY, oldLength, capacity, Integer.MIN_VALUE);
+    }
+
+    /**
+     * Adds the pixel at (x, y) to the label
+     */
+    public void add(int label, int x, int y) {
+        ensureCapacity(label);
+        area[label]++;
+        sumX[label] += x;
+        sumY[label] += y;
+        sumXX[label] += (long) x * x;
+        sumXY[label] += (long) x * y;
+        sumYY[label] += (long) y * y;
+        if (x < minX[label]) {
+            minX[label] = x;
+        }
+        if (x > maxX[label]) {
+            maxX[label] = x;
+        }
+        if (y < minY[label]) {
+            minY[label] = y;
+        }
+        if (y > maxY[label]) {
+            maxY[label] = y;
+        }
+    }
+
+    /**
+     * Adds the horizontal run of pixels x0 to x1 (inclusive) on row y to the label, using the closed forms of the sums
+     * over the run so the result is the same as adding its pixels one by one
+     */
+    public void addRun(int label, int y, int x0, int x1) {
+        ensureCapacity(label);
+        long n = x1 - x0 + 1;
+        //x0 + x1 and n are never both odd so the division is exact
+        long runSumX = (x0 + (long) x1) * n / 2;
+        long runSumXX = sumOfSquaresTo(x1) - sumOfSquaresTo(x0 - 1);
+        area[label] += n;
+        sumX[label] += runSumX;
+        sumY[label] += n * y;
+        sumXX[label] += runSumXX;
+        sumXY[label] += runSumX * y;
+        sumYY[label] += n * y * y;
+        if (x0 < minX[label]) {
+            minX[label] = x0;
+        }
+        if (x1 > maxX[label]) {
+            maxX[label] = x1;
+        }
+        if (y < minY[label]) {
+            minY[label] = y;
+        }
+        if (y > maxY[label]) {
+            maxY[label] = y;
+        }
+    }
+
+    //0^2 + 1^2 + ... + k^2
+    private static long sumOfSquaresTo(long k) {
+        return k < 1 ? 0 : k * (k + 1) * (2 * k + 1) / 6;
+    }
+
+    /**
+     * Folds the sums of one of our labels into a label of the target accumulator (which may be this one)
+     */
+    public void mergeInto(int label, FeatureAccumulator target, int targetLabel) {
+        target.ensureCapacity(targetLabel);
+        target.area[targetLabel] += area[label];
+        target.sumX[targetLabel] += sumX[label];
+        target.sumY[targetLabel] += sumY[label];
+        target.sumXX[targetLabel] += sumXX[label];
+        target.sumXY[targetLabel] += sumXY[label];
+        target.sumYY[targetLabel] += sumYY[label];
+        target.minX[targetLabel] = Math.min(target.minX[targetLabel], minX[label]);
+        target.minY[targetLabel] = Math.min(target.minY[targetLabel], minY[label]);
+        target.maxX[targetLabel] = Math.max(target.maxX[targetLabel], maxX[label]);
+        target.maxY[targetLabel] = Math.max(target.maxY[targetLabel], maxY[label]);
+    }
+
+    /**
+     * Empties the sums of the label so it can be handed out again
+     */
+    public void clear(int label) {
+        area[label] = 0;
+        sumX[label] = 0;
+        sumY[label] = 0;
+        sumXX[label] = 0;
+        sumXY[label] = 0;
+        sumYY[label] = 0;
+        minX[label] = Integer.MAX_VALUE;
+        minY[label] = Integer.MAX_VALUE;
+        maxX[label] = Integer.MIN_VALUE;
+        maxY[label] = Integer.MIN_VALUE;
+    }
+
+    public long getArea(int label) { return area[label]; }
+
+    /**
+     * Hands the accumulated sums of the label to the component so it can derive its metrics
+     */
+    public void applyTo(int label, ConnectedComponent cc) {
+        cc.setFeatures(area[label], sumX[label], sumY[label], sumXX[label], sumXY[label], sumYY[label],
+                minX[label], minY[label], maxX[label], maxY[label]);
+    }
+}
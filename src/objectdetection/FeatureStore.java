@@ -0,0 +1,198 @@
+package objectdetection;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * @author Andrew King
+ *         Reader for the columnar feature files FeatureStoreWriter writes: every column is memory mapped and handed out
+ *         as a little-endian Int/Float/DoubleBuffer over the file, so loading millions of components parses nothing.
+ *         Row i of every column is component i, the components of an image are consecutive.
+ *         File layout (little-endian): the 8 byte magic, int version, int column count, long component count,
+ *         int image count, int padding, long offset of the image table, then one long offset per column, each column
+ *         starting on an 8 byte boundary, and last the image table (per image: long first row, int rows, int name
+ *         length, UTF-8 name)
+ */
+public final class FeatureStore {
+
+    static final byte[] MAGIC = "ODFEATS1".getBytes(StandardCharsets.US_ASCII);
+    static final int VERSION = 1;
+
+    public enum Type {
+        INT(4),
+        FLOAT(4),
+        DOUBLE(8);
+
+        final int bytes;
+
+        Type(int bytes) {
+            this.bytes = bytes;
+        }
+    }
+
+    /**
+     * The columns in file order. The perimeter is -1 and the compactness NaN where the calculations did not
+     * compute them, which is always the case for features-only components (see ConnectedComponent.isAvailable)
+     */
+    public enum Column {
+        //index of the image in the image table
+        IMAGE(Type.INT),
+        LABEL(Type.INT),
+        AREA(Type.INT),
+        CENTROID_X(Type.INT),
+        CENTROID_Y(Type.INT),
+        TOP(Type.INT),
+        LEFT(Type.INT),
+        WIDTH(Type.INT),
+        HEIGHT(Type.INT),
+        A(Type.FLOAT),
+        B(Type.FLOAT),
+        C(Type.FLOAT),
+        ECCENTRICITY(Type.DOUBLE),
+        PERIMETER(Type.INT),
+        COMPACTNESS(Type.DOUBLE);
+
+        final Type type;
+
+        Column(Type type) {
+            this.type = type;
+        }
+
+        public Type getType() { return type; }
+    }
+
+    static final int HEADER_SIZE = 40 + 8 * Column.values().length;
+
+    private final long componentCount;
+    private final ByteBuffer[] columns = new ByteBuffer[Column.values().length];
+    private final String[] imageNames;
+    private final long[] imageStart;
+    private final int[] imageRows;
+
+    private FeatureStore(long componentCount, String[] imageNames, long[] imageStart, int[] imageRows) {
+        this.componentCount = componentCount;
+        this.imageNames = imageNames;
+        this.imageStart = imageStart;
+        this.imageRows = imageRows;
+    }
+
+    /**
+     * Maps the file, the mappings stay valid after this returns
+     */
+    public static FeatureStore open(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            readFully(channel, header, 0);
+            header.flip();
+            for (byte b : MAGIC) {
+                if (header.get() != b) {
+                    throw new IOException(path + " is not a feature store");
+                }
+            }
+            int version = header.getInt();
+            int columnCount = header.getInt();
+            if (version != VERSION || columnCount != Column.values().length) {
+                throw new IOException(path + " is version " + version + " with " + columnCount + " columns, expected version "
+                        + VERSION + " with " + Column.values().length);
+            }
+            long componentCount = header.getLong();
+            int imageCount = header.getInt();
+            header.getInt();
+            long imageTableOffset = header.getLong();
+
+            ByteBuffer table = ByteBuffer.allocate((int) (channel.size() - imageTableOffset)).order(ByteOrder.LITTLE_ENDIAN);
+            readFully(channel, table, imageTableOffset);
+            table.flip();
+            String[] names = new String[imageCount];
+            long[] starts = new long[imageCount];
+            int[] rows = new int[imageCount];
+            for (int i = 0; i < imageCount; i++) {
+                starts[i] = table.getLong();
+                rows[i] = table.getInt();
+                byte[] name = new byte[table.getInt()];
+                table.get(name);
+                names[i] = new String(name, StandardCharsets.UTF_8);
+            }
+            FeatureStore store = new FeatureStore(componentCount, names, starts, rows);
+            for (Column column : Column.values()) {
+                long size = componentCount * column.type.bytes;
+                if (size > Integer.MAX_VALUE) {
+                    throw new IOException(path + " has a column of " + size + " bytes, more than one mapping can hold");
+                }
+                store.columns[column.ordinal()] = channel.map(FileChannel.MapMode.READ_ONLY, header.getLong(), size)
+                        .order(ByteOrder.LITTLE_ENDIAN);
+            }
+            return store;
+        }
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                throw new IOException("Unexpected end of the feature store");
+            }
+            position += read;
+        }
+    }
+
+    public long getComponentCount() { return componentCount; }
+
+    public int getImageCount() { return imageNames.length; }
+
+    public String getImageName(int image) { return imageNames[image]; }
+
+    /**
+     * Row of the first component of the image
+     */
+    public long getImageStart(int image) { return imageStart[image]; }
+
+    public int getImageRows(int image) { return imageRows[image]; }
+
+    /**
+     * The whole column as a read-only view over the mapping, element i is component i
+     */
+    public IntBuffer ints(Column column) {
+        return buffer(column, Type.INT).asIntBuffer();
+    }
+
+    public FloatBuffer floats(Column column) {
+        return buffer(column, Type.FLOAT).asFloatBuffer();
+    }
+
+    public DoubleBuffer doubles(Column column) {
+        return buffer(column, Type.DOUBLE).asDoubleBuffer();
+    }
+
+    private ByteBuffer buffer(Column column, Type type) {
+        return column(column, type).duplicate().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    //the mapping of the column, which must hold values of the type asked for
+    private ByteBuffer column(Column column, Type type) {
+        if (column.type != type) {
+            throw new IllegalArgumentException(column + " holds " + column.type + " values, not " + type);
+        }
+        return columns[column.ordinal()];
+    }
+
+    public int getInt(Column column, int row) {
+        return column(column, Type.INT).getInt(row * Type.INT.bytes);
+    }
+
+    public float getFloat(Column column, int row) {
+        return column(column, Type.FLOAT).getFloat(row * Type.FLOAT.bytes);
+    }
+
+    public double getDouble(Column column, int row) {
+        return column(column, Type.DOUBLE).getDouble(row * Type.DOUBLE.bytes);
+    }
+}
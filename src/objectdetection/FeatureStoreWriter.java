@@ -0,0 +1,193 @@
+package objectdetection;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * @author Andrew King
+ *         Writes the component features as a columnar file for FeatureStore. Each column is appended to a temporary
+ *         file next to the target through its own direct buffer, so memory stays flat however many components go
+ *         through, and close() writes the header and copies the columns into place channel to channel.
+ *         Safe to call from several workers like the other sinks, the rows of one image are always written together
+ */
+public class FeatureStoreWriter extends ResultSink {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final Path file;
+    private final FeatureStore.Column[] columnList = FeatureStore.Column.values();
+    private final Path[] columnFiles = new Path[columnList.length];
+    private final FileChannel[] columnChannels = new FileChannel[columnList.length];
+    private final ByteBuffer[] columnBuffers = new ByteBuffer[columnList.length];
+    private final List<String> imageNames = new ArrayList<>();
+    private final List<long[]> imageRows = new ArrayList<>();
+    private long componentCount;
+    private boolean closed;
+
+    public FeatureStoreWriter(Path file) throws IOException {
+        super(Format.COLUMNAR);
+        this.file = file;
+        Path directory = file.toAbsolutePath().getParent();
+        try {
+            for (int c = 0; c < columnList.length; c++) {
+                columnFiles[c] = Files.createTempFile(directory, file.getFileName() + "." + columnList[c].name().toLowerCase(), ".col");
+                columnChannels[c] = FileChannel.open(columnFiles[c], StandardOpenOption.READ, StandardOpenOption.WRITE);
+                columnBuffers[c] = ByteBuffer.allocateDirect(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            }
+        } catch (IOException e) {
+            deleteColumns();
+            throw e;
+        }
+    }
+
+    @Override
+    public synchronized void write(String image, DetectionResult result) throws IOException {
+        int imageIndex = imageNames.size();
+        imageNames.add(image);
+        imageRows.add(new long[]{componentCount, result.getItemCount()});
+        for (ConnectedComponent cc : result.getComponents()) {
+            putInt(FeatureStore.Column.IMAGE, imageIndex);
+            putInt(FeatureStore.Column.LABEL, cc.getLabel());
+            putInt(FeatureStore.Column.AREA, cc.getArea());
+            putInt(FeatureStore.Column.CENTROID_X, cc.getCentroidX());
+            putInt(FeatureStore.Column.CENTROID_Y, cc.getCentroidY());
+            putInt(FeatureStore.Column.TOP, cc.getTop());
+            putInt(FeatureStore.Column.LEFT, cc.getLeft());
+            putInt(FeatureStore.Column.WIDTH, cc.getWidth());
+            putInt(FeatureStore.Column.HEIGHT, cc.getHeight());
+            putFloat(FeatureStore.Column.A, cc.getA());
+            putFloat(FeatureStore.Column.B, cc.getB());
+            putFloat(FeatureStore.Column.C, cc.getC());
+            putDouble(FeatureStore.Column.ECCENTRICITY, cc.getEccentricity());
+            putInt(FeatureStore.Column.PERIMETER, cc.isCalculated(Feature.PERIMETER) ? cc.getPerimeterSize() : -1);
+            putDouble(FeatureStore.Column.COMPACTNESS, cc.isCalculated(Feature.COMPACTNESS) ? cc.getCompactness() : Double.NaN);
+            componentCount++;
+        }
+    }
+
+    private ByteBuffer room(FeatureStore.Column column) throws IOException {
+        ByteBuffer buffer = columnBuffers[column.ordinal()];
+        if (buffer.remaining() < 8) {
+            drain(column.ordinal());
+        }
+        return buffer;
+    }
+
+    private void putInt(FeatureStore.Column column, int value) throws IOException {
+        room(column).putInt(value);
+    }
+
+    private void putFloat(FeatureStore.Column column, float value) throws IOException {
+        room(column).putFloat(value);
+    }
+
+    private void putDouble(FeatureStore.Column column, double value) throws IOException {
+        room(column).putDouble(value);
+    }
+
+    private void drain(int c) throws IOException {
+        ByteBuffer buffer = columnBuffers[c];
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            columnChannels[c].write(buffer);
+        }
+        buffer.clear();
+    }
+
+    /**
+     * The columns only become a readable file on close
+     */
+    @Override
+    public synchronized void flush() throws IOException {
+        for (int c = 0; c < columnList.length; c++) {
+            drain(c);
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            flush();
+            try (FileChannel out = FileChannel.open(file, StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING)) {
+                //columns start on 8 byte boundaries after the header
+                long[] offsets = new long[columnList.length];
+                long position = FeatureStore.HEADER_SIZE;
+                for (int c = 0; c < columnList.length; c++) {
+                    offsets[c] = position;
+                    position = align(position + componentCount * columnList[c].type.bytes);
+                }
+                long imageTableOffset = position;
+
+                ByteBuffer header = ByteBuffer.allocate(FeatureStore.HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+                header.put(FeatureStore.MAGIC).putInt(FeatureStore.VERSION).putInt(columnList.length)
+                        .putLong(componentCount).putInt(imageNames.size()).putInt(0).putLong(imageTableOffset);
+                for (long offset : offsets) {
+                    header.putLong(offset);
+                }
+                header.flip();
+                writeFully(out, header, 0);
+                for (int c = 0; c < columnList.length; c++) {
+                    FileChannel column = columnChannels[c];
+                    long size = column.size();
+                    for (long copied = 0; copied < size; ) {
+                        copied += column.transferTo(copied, size - copied, out.position(offsets[c] + copied));
+                    }
+                }
+
+                ByteBuffer table = ByteBuffer.allocate(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+                position = imageTableOffset;
+                for (int i = 0; i < imageNames.size(); i++) {
+                    byte[] name = imageNames.get(i).getBytes(StandardCharsets.UTF_8);
+                    if (table.remaining() < 16 + name.length) {
+                        table.flip();
+                        position += writeFully(out, table, position);
+                        table = ByteBuffer.allocate(Math.max(BUFFER_SIZE, 16 + name.length)).order(ByteOrder.LITTLE_ENDIAN);
+                    }
+                    table.putLong(imageRows.get(i)[0]).putInt((int) imageRows.get(i)[1]).putInt(name.length).put(name);
+                }
+                table.flip();
+                writeFully(out, table, position);
+            }
+        } finally {
+            deleteColumns();
+        }
+    }
+
+    private static long align(long position) {
+        return (position + 7) & ~7L;
+    }
+
+    private static int writeFully(FileChannel out, ByteBuffer buffer, long position) throws IOException {
+        int written = 0;
+        while (buffer.hasRemaining()) {
+            written += out.write(buffer, position + written);
+        }
+        return written;
+    }
+
+    private void deleteColumns() throws IOException {
+        for (int c = 0; c < columnList.length; c++) {
+            if (columnChannels[c] != null) {
+                columnChannels[c].close();
+            }
+            if (columnFiles[c] != null) {
+                Files.deleteIfExists(columnFiles[c]);
+            }
+        }
+    }
+
+    public long getComponentCount() { return componentCount; }
+}
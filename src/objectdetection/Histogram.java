@@ -0,0 +1,207 @@
+package objectdetection;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * @author Andrew King
+ *         256 bin histogram of a gray scale image or a rectangular region of one. The pixels are read once and every
+ *         global threshold (iterative, mode, Otsu) is then found from the bins alone, so trying several methods on the
+ *         same image never rescans it. The prefix counts and sums and the smoothed histogram are cached once built
+ */
+public class Histogram {
+
+    public static final int BINS = 256;
+
+    //raw pixel count of every gray level
+    final int[] counts = new int[BINS];
+    //number of pixels with gray level <= i and the sum of their gray levels
+    final long[] cumulativeCounts = new long[BINS];
+    final long[] cumulativeSums = new long[BINS];
+    long total;
+    //smoothed copy used by the figure of merit (built on first use)
+    int[] smoothed;
+    int[] figureOfMerit;
+
+    /**
+     * Histogram of the whole width x height image in the buffer (absolute indexes from 0)
+     */
+    public static Histogram of(ByteBuffer gray, int width, int height) {
+        Histogram histogram = new Histogram();
+        histogram.build(gray, width, 0, 0, width, height);
+        return histogram;
+    }
+
+    /**
+     * Replaces the bins with those of the region [left, left + regionWidth) x [top, top + regionHeight) of an image
+     * stored row by row with the given stride, so one histogram can be reused for many regions
+     */
+    public void build(ByteBuffer gray, int stride, int left, int top, int regionWidth, int regionHeight) {
+        for (int i = 0; i < BINS; i++) {
+            counts[i] = 0;
+        }
+        PixelKernels kernels = PixelKernels.get();
+        if (left == 0 && regionWidth == stride) {
+            //whole rows are one contiguous range
+            kernels.histogram(gray, top * stride, regionWidth * regionHeight, counts);
+        } else {
+            for (int y = top; y < top + regionHeight; y++) {
+                kernels.histogram(gray, y * stride + left, regionWidth, counts);
+            }
+        }
+        long count = 0;
+        long sum = 0;
+        for (int i = 0; i < BINS; i++) {
+            count += counts[i];
+            sum += (long) counts[i] * i;
+            cumulativeCounts[i] = count;
+            cumulativeSums[i] = sum;
+        }
+        total = count;
+        smoothed = null;
+        figureOfMerit = null;
+    }
+
+    public int getCount(int level) { return counts[level]; }
+
+    public long getTotal() { return total; }
+
+    //number and sum of the pixels with gray level <= threshold
+    private long countAtOrBelow(int threshold) {
+        return threshold < 0 ? 0 : cumulativeCounts[Math.min(threshold, BINS - 1)];
+    }
+
+    private long sumAtOrBelow(int threshold) {
+        return threshold < 0 ? 0 : cumulativeSums[Math.min(threshold, BINS - 1)];
+    }
+
+    /**
+     * Iterative (ISODATA) threshold: starts at the mean and moves to the midpoint of the means below and above it until
+     * they stop changing, the same rounding as the old per-pixel loop but O(1) per iteration
+     */
+    public int iterativeThreshold() {
+        long averageIntensity = cumulativeSums[BINS - 1] / total;
+
+        //Find our threshold value
+        double movingThreshold = averageIntensity;
+        double regionOneMean = 0;
+        double regionTwoMean = 0;
+
+        while (true) {
+            //pixels are whole numbers so pixel <= movingThreshold is pixel <= floor(movingThreshold)
+            int split = (int) Math.floor(movingThreshold);
+            long regionOneSize = countAtOrBelow(split);
+            long regionOne = sumAtOrBelow(split);
+            long regionTwoSize = total - regionOneSize;
+            long regionTwo = cumulativeSums[BINS - 1] - regionOne;
+            //prevent divide by zero error AND if we haven't changed then move on
+            if (regionOneSize < 1 || regionTwoSize < 1 || (regionOne / regionOneSize == regionOneMean && regionTwoMean == regionTwo / regionTwoSize)) {
+                break;
+            }
+            regionOneMean = regionOne / regionOneSize;
+            regionTwoMean = regionTwo / regionTwoSize;
+            movingThreshold = (regionOneMean + regionTwoMean) / 2;
+        }
+        return (int) movingThreshold;
+    }
+
+    /**
+     * Otsu threshold: the gray level that maximises the between-class variance of the pixels at or below it and the
+     * pixels above it
+     */
+    public int otsuThreshold() {
+        long sumAll = cumulativeSums[BINS - 1];
+        double bestVariance = -1;
+        int threshold = 0;
+        for (int t = 0; t < BINS - 1; t++) {
+            long below = cumulativeCounts[t];
+            long above = total - below;
+            if (below == 0 || above == 0) {
+                continue;
+            }
+            double meanBelow = cumulativeSums[t] / (double) below;
+            double meanAbove = (sumAll - cumulativeSums[t]) / (double) above;
+            double variance = (double) below * above * (meanBelow - meanAbove) * (meanBelow - meanAbove);
+            if (variance > bestVariance) {
+                bestVariance = variance;
+                threshold = t;
+            }
+        }
+        return threshold;
+    }
+
+    /**
+     * Mode threshold: the valley between the two most distinct peaks of the smoothed histogram
+     */
+    public int modeThreshold() {
+        return getFigureOfMerit()[1];
+    }
+
+    /**
+     * Smoothed histogram (each bin averaged with its neighbours, running left to right as the old createHistogram did)
+     * do not modify the returned array
+     */
+    public int[] getSmoothed() {
+        if (smoothed == null) {
+            smoothed = counts.clone();
+            for (int i = 1; i < BINS - 1; i++) {
+                smoothed[i] = (smoothed[i - 1] + smoothed[i] + smoothed[i + 1]) / 3;
+            }
+        }
+        return smoothed;
+    }
+
+    /**
+     * {peak1, valley, peak2} of the smoothed histogram, do not modify the returned array
+     */
+    public int[] getFigureOfMerit() {
+        if (figureOfMerit == null) {
+            figureOfMerit = findFigureOfMerit(getSmoothed());
+        }
+        return figureOfMerit;
+    }
+
+    /**
+     * Determines our Figure of Merit (used in double thresholding and mode thresholding)
+     */
+    public static int[] findFigureOfMerit(int[] histogram) {
+        //GET MODES
+        List<Integer> modes = new ArrayList<>();
+        for (int i = 1; i < histogram.length - 1; i++) {
+            //normal case (we use the >= in case there are plateaus, but use it once so we don't add the whole plateau)
+            if (histogram[i] >= histogram[i + 1] && histogram[i] > histogram[i - 1]) {
+                modes.add(i);
+            }
+        }
+        int minDistance = 60;
+        float highestPeakiness = 0;
+        int threshold = 0;
+        int peak1 = 0;
+        int peak2 = 0;
+        //for each mode combination get its valley if the one you are checking beats the last one save it as the best until no more combinations are available
+        for (int i = 0; i < modes.size(); i++) {
+            //set x = i so we are only checking all the modes after it (to avoid checking a pair twice)
+            for (int x = i; x < modes.size(); x++) {
+                //if these two modes are far enough apart then find the min between them
+                if (modes.get(i) + minDistance <= modes.get(x)) {
+                    int valley = modes.get(i);
+                    for (int from = modes.get(i); from < modes.get(x); from++) {
+                        if (histogram[from] < histogram[valley]) {
+                            valley = from;
+                        }
+                    }
+                    //calculate their peakiness
+                    float peakiness = Integer.min(histogram[modes.get(i)], histogram[modes.get(x)]) / (float) histogram[valley];
+                    if (peakiness > highestPeakiness) {
+                        highestPeakiness = peakiness;
+                        peak1 = modes.get(i);
+                        peak2 = modes.get(x);
+                        threshold = valley;
+                    }
+                }
+            }
+        }
+        return new int[]{peak1, threshold, peak2};
+    }
+}
@@ -0,0 +1,51 @@
+package objectdetection;
+
+import java.util.Arrays;
+
+/**
+ * @author Andrew King
+ *         Growable list of primitive ints used for the pixel indexes of the components, so storing a pixel never boxes
+ *         it and the metric loops read a plain array
+ */
+public class IntList {
+
+    private static final int[] EMPTY = new int[0];
+
+    int[] values;
+    int size;
+
+    public IntList() {
+        values = EMPTY;
+    }
+
+    public IntList(int initialCapacity) {
+        values = initialCapacity == 0 ? EMPTY : new int[initialCapacity];
+    }
+
+    public void add(int value) {
+        if (size == values.length) {
+            values = Arrays.copyOf(values, Math.max(16, size * 2));
+        }
+        values[size++] = value;
+    }
+
+    public int get(int index) {
+        if (index >= size) {
+            throw new IndexOutOfBoundsException("Index " + index + " out of bounds for size " + size);
+        }
+        return values[index];
+    }
+
+    public int size() { return size; }
+
+    public boolean isEmpty() { return size == 0; }
+
+    public void clear() {
+        size = 0;
+    }
+
+    /**
+     * Copy of the values in the list
+     */
+    public int[] toArray() { return Arrays.copyOf(values, size); }
+}
@@ -0,0 +1,83 @@
+package objectdetection;
+
+import java.nio.ByteBuffer;
+
+/**
+ * @author Andrew King
+ *         Summed-area table of a gray scale image (and optionally of its squared values) so the sum, mean and variance
+ *         of any rectangle can be read in constant time. The tables are (width + 1) x (height + 1) with a zero first
+ *         row and column and are reused when the next image needs no more room
+ */
+public class IntegralImage {
+
+    int width, height;
+    //sum[(y + 1) * (width + 1) + x + 1] holds the sum of all pixels above and left of (x, y) inclusive
+    long[] sum = new long[0];
+    long[] sumOfSquares = new long[0];
+    boolean hasSquares;
+
+    /**
+     * Builds the tables from the unsigned bytes of the buffer (absolute indexes from 0)
+     */
+    public void build(ByteBuffer gray, int width, int height, boolean squares) {
+        this.width = width;
+        this.height = height;
+        this.hasSquares = squares;
+        int stride = width + 1;
+        int size = stride * (height + 1);
+        if (sum.length < size) {
+            sum = new long[size];
+        }
+        if (squares && sumOfSquares.length < size) {
+            sumOfSquares = new long[size];
+        }
+        for (int x = 0; x < stride; x++) {
+            sum[x] = 0;
+            if (squares) {
+                sumOfSquares[x] = 0;
+            }
+        }
+        for (int y = 0; y < height; y++) {
+            long rowSum = 0;
+            long rowSumOfSquares = 0;
+            int above = y * stride;
+            int current = above + stride;
+            sum[current] = 0;
+            if (squares) {
+                sumOfSquares[current] = 0;
+            }
+            for (int x = 0; x < width; x++) {
+                int pixel = gray.get(y * width + x) & 0xFF;
+                rowSum += pixel;
+                sum[current + x + 1] = sum[above + x + 1] + rowSum;
+                if (squares) {
+                    rowSumOfSquares += pixel * pixel;
+                    sumOfSquares[current + x + 1] = sumOfSquares[above + x + 1] + rowSumOfSquares;
+                }
+            }
+        }
+    }
+
+    /**
+     * Sum of the pixels in [x0, x1] x [y0, y1] (inclusive)
+     */
+    public long sum(int x0, int y0, int x1, int y1) {
+        return rectangle(sum, x0, y0, x1, y1);
+    }
+
+    /**
+     * Sum of the squared pixels in [x0, x1] x [y0, y1] (inclusive), only available when built with squares
+     */
+    public long sumOfSquares(int x0, int y0, int x1, int y1) {
+        if (!hasSquares) {
+            throw new IllegalStateException("The integral image was built without squares");
+        }
+        return rectangle(sumOfSquares, x0, y0, x1, y1);
+    }
+
+    private long rectangle(long[] table, int x0, int y0, int x1, int y1) {
+        int stride = width + 1;
+        return table[(y1 + 1) * stride + x1 + 1] - table[y0 * stride + x1 + 1]
+                - table[(y1 + 1) * stride + x0] + table[y0 * stride + x0];
+    }
+}
@@ -0,0 +1,70 @@
+package objectdetection;
+
+import java.util.List;
+import java.util.Random;
+
+/**
+ * @author Andrew King
+ *         Paints a detection result into an ARGB pixel array the way the viewer shows it: unlabeled foreground in
+ *         black and every component in its own color (seeded by its index, so the colors are the same every run),
+ *         optionally with its perimeter and medial axis. Needs no display so it can be timed and used headless
+ */
+public final class LabelRenderer {
+
+    static final int BLACK = 0xFF000000;
+    static final int GREEN = 0xFF00FF00;
+
+    private LabelRenderer() {
+    }
+
+    public static void render(DetectionResult result, int[] argb, boolean binary, boolean perimeter, boolean axis) {
+        int size = result.getWidth() * result.getHeight();
+        for (int i = 0; i < size; i++) {
+            if (result.getLabel(i) == 1) {
+                argb[i] = BLACK;
+            }
+        }
+        //color foreground
+        List<ConnectedComponent> listOfItems = result.getComponents();
+        Random random = new Random();
+        for (int i = 0; i < listOfItems.size(); i++) {
+            int myColor;
+            if (binary) {
+                myColor = BLACK;
+            } else {
+                //the same sequence Processing's randomSeed(i) and random(low, high) give
+                random.setSeed(i);
+                myColor = rgb(random(random, 0, 200), random(random, 0, 200), random(random, 50, 255));
+            }
+            ConnectedComponent cc = listOfItems.get(i);
+            //Color Object
+            for (int p = 0; p < cc.pixels.size(); p++) {
+                argb[cc.pixels.get(p)] = myColor;
+            }
+            //Color Perimeter
+            if (perimeter) {
+                for (int p = 0; p < cc.perimeter.size(); p++) {
+                    argb[cc.perimeter.get(p)] = BLACK;
+                }
+            }
+            //Color Medial Axis
+            if (axis && cc.isAvailable(Feature.MEDIAL_AXIS)) {
+                for (int s = 0; s < cc.getSkeletonSize(); s++) {
+                    argb[cc.getSkeletonPixel(s)] = GREEN;
+                }
+            }
+        }
+    }
+
+    private static float random(Random random, float low, float high) {
+        float value;
+        do {
+            value = random.nextFloat() * (high - low) + low;
+        } while (value == high);
+        return value;
+    }
+
+    private static int rgb(float r, float g, float b) {
+        return BLACK | (int) (r / 255f * 255) << 16 | (int) (g / 255f * 255) << 8 | (int) (b / 255f * 255);
+    }
+}
@@ -0,0 +1,99 @@
+package objectdetection;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * @author Andrew King
+ *         DetectionMetrics that keeps running totals to be polled: per stage the number of runs, total and longest
+ *         time and allocated bytes, and per counter the total and the last value. Thread safe, so one recorder can be
+ *         shared by all the detectors of a BatchRunner
+ */
+public class MetricsRecorder implements DetectionMetrics {
+
+    private static final int STAGES = Stage.values().length;
+    private static final int COUNTERS = Counter.values().length;
+
+    private final AtomicLongArray stageRuns = new AtomicLongArray(STAGES);
+    private final AtomicLongArray stageNanos = new AtomicLongArray(STAGES);
+    private final AtomicLongArray stageMaxNanos = new AtomicLongArray(STAGES);
+    private final AtomicLongArray stageBytes = new AtomicLongArray(STAGES);
+    private final AtomicLongArray counterTotals = new AtomicLongArray(COUNTERS);
+    private final AtomicLongArray counterLast = new AtomicLongArray(COUNTERS);
+    private final AtomicLong detections = new AtomicLong();
+
+    @Override
+    public void stageCompleted(Stage stage, long nanos, long allocatedBytes) {
+        int s = stage.ordinal();
+        stageRuns.incrementAndGet(s);
+        stageNanos.addAndGet(s, nanos);
+        stageMaxNanos.accumulateAndGet(s, nanos, Math::max);
+        if (allocatedBytes > 0) {
+            stageBytes.addAndGet(s, allocatedBytes);
+        }
+    }
+
+    @Override
+    public void counted(Counter counter, long value) {
+        counterTotals.addAndGet(counter.ordinal(), value);
+        counterLast.set(counter.ordinal(), value);
+    }
+
+    @Override
+    public void detectionCompleted(int width, int height) {
+        detections.incrementAndGet();
+    }
+
+    public long getDetections() { return detections.get(); }
+
+    public long getStageRuns(Stage stage) { return stageRuns.get(stage.ordinal()); }
+
+    public long getStageNanos(Stage stage) { return stageNanos.get(stage.ordinal()); }
+
+    public long getStageMaxNanos(Stage stage) { return stageMaxNanos.get(stage.ordinal()); }
+
+    public long getStageAllocatedBytes(Stage stage) { return stageBytes.get(stage.ordinal()); }
+
+    public long getCounterTotal(Counter counter) { return counterTotals.get(counter.ordinal()); }
+
+    public long getCounterLast(Counter counter) { return counterLast.get(counter.ordinal()); }
+
+    /**
+     * Sets every total back to 0 (not atomic with respect to detections still running)
+     */
+    public void reset() {
+        for (int s = 0; s < STAGES; s++) {
+            stageRuns.set(s, 0);
+            stageNanos.set(s, 0);
+            stageMaxNanos.set(s, 0);
+            stageBytes.set(s, 0);
+        }
+        for (int c = 0; c < COUNTERS; c++) {
+            counterTotals.set(c, 0);
+            counterLast.set(c, 0);
+        }
+        detections.set(0);
+    }
+
+    /**
+     * One line per stage and counter with the totals and the mean per run
+     */
+    @Override
+    public String toString() {
+        StringBuilder out = new StringBuilder("detections: ").append(getDetections()).append('\n');
+        for (Stage stage : Stage.values()) {
+            long runs = getStageRuns(stage);
+            if (runs == 0) {
+                continue;
+            }
+            out.append(String.format("%-13s runs: %d  mean: %.3f ms  max: %.3f ms  allocated: %d KB%n", stage, runs,
+                    getStageNanos(stage) / 1e6 / runs, getStageMaxNanos(stage) / 1e6,
+                    getStageAllocatedBytes(stage) / 1024));
+        }
+        for (Counter counter : Counter.values()) {
+            out.append(String.format("%-25s total: %d  last: %d%n", counter, getCounterTotal(counter),
+                    getCounterLast(counter)));
+        }
+        return out.toString();
+    }
+}
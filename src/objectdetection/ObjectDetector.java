@@ -0,0 +1,915 @@
+package objectdetection;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.Supplier;
+
+/**
+ * @author Andrew King
+ *         Display-free detection engine: thresholds a gray scale buffer, labels its connected components and runs their
+ *         calculations. Working buffers are reused between calls, so one detector can process many images but it
+ *         should only be used by one thread at a time
+ */
+public class ObjectDetector {
+
+    //counter for the number of items
+    short itemCount = 0;
+    //gray scale pixels of the image being processed, read directly by the thresholding stages
+    ByteBuffer gray;
+    //array for our labels, 0 for the background (reused between calls when the size allows)
+    short[] imageArray;
+    //histogram of the current image, built on first use and shared by every histogram based threshold
+    Histogram histogram;
+    //reused for the tiles of the adaptive method
+    Histogram tileHistogram = new Histogram();
+    //queue of the flood fill that resolves the uncertain pixels of double thresholding (reused between calls)
+    int[] fillQueue = new int[0];
+    //summed-area tables for the local threshold methods (reused between calls)
+    IntegralImage integralImage = new IntegralImage();
+    //bit-packed binary image of the current image: written by the thresholds, read by the labelers, cleared by the
+    //size filter and used to find every perimeter at once (reused between calls)
+    BitImage foreground = new BitImage();
+    BitImage boundary = new BitImage();
+    //pixels between the two thresholds of double thresholding that have not joined the foreground yet
+    BitImage uncertain = new BitImage();
+    //runs of the binary image for the run-length labeler (reused between calls)
+    RunLengthImage runImage = new RunLengthImage();
+    //provisional labels of the parallel labeling path (int wide since every stripe gets its own label range)
+    int[] provisionalLabels;
+    //list of our components
+    List<ConnectedComponent> listOfItems = new ArrayList<>();
+
+    //width and height of the image being processed
+    int width;
+    int height;
+    //distance used for the medial axis of the components
+    DistanceTransform.Metric medialAxisMetric = DistanceTransform.Metric.CITY_BLOCK;
+    //metrics the calculations compute, the components compute the others on demand
+    Set<Feature> features = EnumSet.allOf(Feature.class);
+    //false stops the pixel-list labeling after the size filter, so the benchmarks can time the calculations on their own
+    boolean calculate = true;
+    //times the stages and counts of detect for the metrics and Flight Recorder, does nothing unless one is listening
+    StageProfiler profiler = new StageProfiler();
+
+    /**
+     * Runs the whole pipeline on an 8 bit gray scale image and returns the labels and components found
+     * the buffer is read from its current position and is not modified
+     */
+    public DetectionResult detect(ByteBuffer gray, int width, int height, DetectionParameters params) {
+        profiler.start(width, height, params.getThresholdMethod());
+        try {
+            profiler.begin(DetectionMetrics.Stage.LOAD);
+            load(gray, width, height);
+            profiler.begin(DetectionMetrics.Stage.THRESHOLD);
+            threshold(params);
+            if (profiler.isEnabled()) {
+                profiler.end();
+                profiler.count(DetectionMetrics.Counter.FOREGROUND_PIXELS, countForeground());
+            }
+            label(params);
+            profiler.count(DetectionMetrics.Counter.COMPONENTS_AFTER_FILTER, listOfItems.size());
+        } finally {
+            profiler.finish();
+        }
+        return new DetectionResult(width, height, imageArray, listOfItems);
+    }
+
+    public DetectionResult detect(byte[] gray, int width, int height, DetectionParameters params) {
+        return detect(ByteBuffer.wrap(gray), width, height, params);
+    }
+
+    public DetectionResult detect(DtImage image, DetectionParameters params) {
+        return detect(image.getPixels(), image.getWidth(), image.getHeight(), params);
+    }
+
+    /**
+     * Sets the metrics that receive the timings and counts of every detect call, null turns them off
+     * Flight Recorder events are emitted either way whenever a recording has them enabled
+     */
+    public void setMetrics(DetectionMetrics metrics) {
+        profiler.metrics = metrics;
+    }
+
+    public DetectionMetrics getMetrics() { return profiler.metrics; }
+
+    /**
+     * First stage of detect: takes the image and resets the state left by the last one
+     */
+    public void load(ByteBuffer gray, int width, int height) {
+        if (gray.remaining() < width * height) {
+            throw new IllegalArgumentException("Expected " + width * height + " pixels but the buffer only has " + gray.remaining());
+        }
+        this.width = width;
+        this.height = height;
+        itemCount = 0;
+        listOfItems = new ArrayList<>();
+        //slice so absolute indexes start at the first pixel
+        this.gray = gray.slice();
+        histogram = null;
+        if (imageArray == null || imageArray.length != width * height) {
+            imageArray = new short[width * height];
+        }
+    }
+
+    /**
+     * Second stage of detect: turns the loaded image into a binary image with the chosen method
+     */
+    public void threshold(DetectionParameters params) {
+        switch (params.getThresholdMethod()) {
+            case MODE:
+                modeThreshold();
+                break;
+            case ITERATIVE:
+                iterativeThreshold();
+                break;
+            case ADAPTIVE:
+                adaptiveThreshold((short) params.getAdaptiveWindow());
+                break;
+            case DOUBLE:
+                doubleThreshold(params.getHysteresisConnectivity());
+                break;
+            case OTSU:
+                otsuThreshold();
+                break;
+            case BRADLEY:
+                bradleyThreshold(params.getLocalWindow(), params.getBradleySensitivity());
+                break;
+            case SAUVOLA:
+                sauvolaThreshold(params.getLocalWindow(), params.getSauvolaK());
+                break;
+            default:
+                simpleThreshold(params.getThreshold());
+                break;
+        }
+    }
+
+    /**
+     * Last stage of detect: labels the binary image, filters the components and runs their calculations
+     */
+    public void label(DetectionParameters params) {
+        profiler.begin(DetectionMetrics.Stage.LABEL);
+        medialAxisMetric = params.getMedialAxisMetric();
+        features = params.getFeatures();
+        if (params.isRunLengthLabeling()) {
+            runLengthComponent(params.getFilterSize(), params.isFeaturesOnly());
+        } else {
+            connectedComponent(params.getFilterSize(), params.isFeaturesOnly(), params.getLabelingStripes());
+        }
+    }
+
+    //number of foreground pixels of the binary image (only counted when the profiler is on)
+    private long countForeground() {
+        return foreground.cardinality();
+    }
+
+    /**
+     * Returns the unsigned gray value of the pixel
+     */
+    private int grayAt(int i) {
+        return gray.get(i) & 0xFF;
+    }
+
+    /**
+     * Converts our gray scale image to a binary image based on our threshold
+     */
+    public void simpleThreshold(int threshold) {
+        //CONVERT TO BINARY IMAGE
+        //if the brightness is less than our threshold color the pixel black otherwise white
+        foreground.threshold(gray, width, height, threshold);
+    }
+
+    /**
+     * Mode Thresholds the Image
+     */
+    public void modeThreshold() {
+        //what you have is your best option
+        simpleThreshold(getHistogram().modeThreshold());
+    }
+
+    /**
+     * Iterative Thresholds the Image
+     */
+    public void iterativeThreshold() {
+        simpleThreshold(getHistogram().iterativeThreshold());
+    }
+
+    /**
+     * Otsu Thresholds the Image
+     */
+    public void otsuThreshold() {
+        simpleThreshold(getHistogram().otsuThreshold());
+    }
+
+    /**
+     * Histogram of the current image, the pixels are only counted the first time it is asked for
+     */
+    public Histogram getHistogram() {
+        if (histogram == null) {
+            histogram = Histogram.of(gray, width, height);
+        }
+        return histogram;
+    }
+
+    /**
+     * Finds the iterative threshold of a rectangular region of our gray scale image
+     */
+    private int findIterativeThreshold(int regionLeft, int regionTop, int regionWidth, int regionHeight) {
+        tileHistogram.build(gray, width, regionLeft, regionTop, regionWidth, regionHeight);
+        return tileHistogram.iterativeThreshold();
+    }
+
+    /**
+     * Adaptive Thresholds the Image
+     * pixels in the partial masks along the right and bottom edges are left as background
+     */
+    public void adaptiveThreshold(short m) {
+        foreground.resize(width, height);
+        //mask loop (x and y of mask size m)
+        for (int y = 0; y < height / m; y++) {
+            for (int x = 0; x < width / m; x++) {
+                //threshold region
+                int threshold = findIterativeThreshold(x * m, y * m, m, m);
+                //modify our image array (stitch portions together)
+                for (int y2 = 0; y2 < m; y2++) {
+                    int row = (y * m) + y2;
+                    for (int x2 = x * m, i = row * width + x2; x2 < (x * m) + m; x2++, i++) {
+                        if (grayAt(i) <= threshold) {
+                            foreground.set(x2, row);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Bradley local threshold: a pixel is foreground when it is at least the sensitivity fraction darker than the mean
+     * of the window x window box around it (clipped at the image edges), every mean comes from the integral image
+     */
+    public void bradleyThreshold(int window, double sensitivity) {
+        integralImage.build(gray, width, height, false);
+        foreground.resize(width, height);
+        int half = window / 2;
+        for (int y = 0; y < height; y++) {
+            int y0 = Math.max(0, y - half);
+            int y1 = Math.min(height - 1, y + half);
+            for (int x = 0, i = y * width; x < width; x++, i++) {
+                int x0 = Math.max(0, x - half);
+                int x1 = Math.min(width - 1, x + half);
+                long count = (long) (x1 - x0 + 1) * (y1 - y0 + 1);
+                //compare pixel * count against the window sum to avoid a division per pixel
+                if (grayAt(i) * count <= integralImage.sum(x0, y0, x1, y1) * (1.0 - sensitivity)) {
+                    foreground.set(x, y);
+                }
+            }
+        }
+    }
+
+    /**
+     * Sauvola local threshold: mean * (1 + k * (standard deviation / 128 - 1)) over the window x window box around each
+     * pixel, the mean and variance come from the integral images of the pixels and their squares
+     */
+    public void sauvolaThreshold(int window, double k) {
+        integralImage.build(gray, width, height, true);
+        foreground.resize(width, height);
+        int half = window / 2;
+        for (int y = 0; y < height; y++) {
+            int y0 = Math.max(0, y - half);
+            int y1 = Math.min(height - 1, y + half);
+            for (int x = 0, i = y * width; x < width; x++, i++) {
+                int x0 = Math.max(0, x - half);
+                int x1 = Math.min(width - 1, x + half);
+                double count = (double) (x1 - x0 + 1) * (y1 - y0 + 1);
+                double mean = integralImage.sum(x0, y0, x1, y1) / count;
+                double variance = Math.max(0, integralImage.sumOfSquares(x0, y0, x1, y1) / count - mean * mean);
+                double threshold = mean * (1 + k * (Math.sqrt(variance) / 128 - 1));
+                if (grayAt(i) <= threshold) {
+                    foreground.set(x, y);
+                }
+            }
+        }
+    }
+
+    /**
+     * Double Thresholds the Image
+     */
+    public void doubleThreshold() {
+        doubleThreshold(4);
+    }
+
+    /**
+     * Double Thresholds the Image, the pixels between the two thresholds become foreground when they are connected
+     * (through 4 or 8 neighbours) to a pixel below the low threshold
+     */
+    public void doubleThreshold(int connectivity) {
+        int[] FOM = getHistogram().getFigureOfMerit();
+        //threshold out the regions that are likely 0 or 1: close to black is foreground, close to white background
+        //and the pixels in r2 between them are uncertain
+        foreground.threshold(gray, width, height, FOM[0] - 1);
+        uncertain.threshold(gray, width, height, FOM[2]);
+        uncertain.andNot(foreground);
+
+        //hysteresis: flood from the foreground into r2, each pixel is queued at most once since it leaves r2 when queued
+        int size = width * height;
+        if (fillQueue.length < size) {
+            fillQueue = new int[size];
+        }
+        //a word at a time pass takes everything reachable down and to the right, the flood only goes on from the
+        //foreground pixels that still touch r2
+        foreground.grow(uncertain, connectivity);
+        int tail = foreground.touching(uncertain, connectivity, fillQueue);
+        for (int head = 0; head < tail; head++) {
+            tail = growUncertain(fillQueue[head], connectivity, tail);
+        }
+        //the pixels still in r2 stay background
+    }
+
+    /**
+     * Moves the r2 neighbours of a foreground pixel into the foreground and queues them, neighbours outside the image
+     * are skipped, returns the new tail of the queue
+     */
+    private int growUncertain(int i, int connectivity, int tail) {
+        int y = i / width;
+        int x = i - y * width;
+        boolean hasNorth = y > 0;
+        boolean hasSouth = y < height - 1;
+        boolean hasWest = x > 0;
+        boolean hasEast = x < width - 1;
+        //word and bit of the pixel in both bit images, the rows above and below are wordsPerRow words away and the
+        //columns either side are the bit rotated by one, in the word before or after at the edges of a word
+        int stride = foreground.wordsPerRow;
+        int word = y * stride + (x >>> 6);
+        long bit = 1L << x;
+        int westWord = (x & 63) == 0 ? word - 1 : word;
+        long westBit = Long.rotateRight(bit, 1);
+        int eastWord = (x & 63) == 63 ? word + 1 : word;
+        long eastBit = Long.rotateLeft(bit, 1);
+        if (hasNorth) {
+            tail = promote(i - width, word - stride, bit, tail);
+        }
+        if (hasSouth) {
+            tail = promote(i + width, word + stride, bit, tail);
+        }
+        if (hasWest) {
+            tail = promote(i - 1, westWord, westBit, tail);
+        }
+        if (hasEast) {
+            tail = promote(i + 1, eastWord, eastBit, tail);
+        }
+        if (connectivity == 8) {
+            if (hasNorth && hasWest) {
+                tail = promote(i - width - 1, westWord - stride, westBit, tail);
+            }
+            if (hasNorth && hasEast) {
+                tail = promote(i - width + 1, eastWord - stride, eastBit, tail);
+            }
+            if (hasSouth && hasWest) {
+                tail = promote(i + width - 1, westWord + stride, westBit, tail);
+            }
+            if (hasSouth && hasEast) {
+                tail = promote(i + width + 1, eastWord + stride, eastBit, tail);
+            }
+        }
+        return tail;
+    }
+
+    private int promote(int i, int word, long bit, int tail) {
+        if ((uncertain.words[word] & bit) != 0) {
+            uncertain.words[word] &= ~bit;
+            foreground.words[word] |= bit;
+            fillQueue[tail++] = i;
+        }
+        return tail;
+    }
+
+    /**
+     * Creates and smooths a Histogram for use by Thresholding Algorithms
+     */
+    public int[] createHistogram() {
+        return getHistogram().getSmoothed().clone();
+    }
+
+    /**
+     * Determines our Figure of Merit (used in double thresholding and mode thresholding)
+     */
+    public int[] findFigureOfMerit(int[] histogram) {
+        return Histogram.findFigureOfMerit(histogram);
+    }
+
+    /**
+     * Performs a raster scan of our image and calls the sequential find
+     * component method if it hits a foreground pixel because our connected component
+     * algorithm changes the cc pixel labels it will avoid running the same
+     * object twice
+     */
+    public void connectedComponent(int filtersize) {
+        connectedComponent(filtersize, false);
+    }
+
+    /**
+     * Same as connectedComponent(filtersize) but in features-only mode the area, centroid, bounds and moments of each
+     * component are accumulated during the raster scan and no pixel lists are built (perimeter, medial axis and
+     * compactness are not available in that mode)
+     */
+    public void connectedComponent(int filtersize, boolean featuresOnly) {
+        connectedComponent(filtersize, featuresOnly, 1);
+    }
+
+    /**
+     * With more than one stripe the first pass is split into horizontal stripes labeled on fork-join tasks
+     * (see labelStripes), the labels, components and features are identical to the single raster scan
+     */
+    public void connectedComponent(int filtersize, boolean featuresOnly, int stripes) {
+        stripes = Math.min(stripes, height);
+        //the labels are written over the background left by the last image
+        Arrays.fill(imageArray, (short) 0);
+        if (stripes > 1) {
+            labelWide(filtersize, featuresOnly, stripes);
+            return;
+        }
+        //create equivalence table
+        EquivalenceTable equivTab = new EquivalenceTable();
+        FeatureAccumulator features = featuresOnly ? new FeatureAccumulator(256) : null;
+
+        //scan left to right through the runs of foreground pixels, skipping the background a word at a time
+        for (int y = 0; y < height; y++) {
+            //x is left at the end of the run by the pixel loop
+            for (int x = foreground.nextSetInRow(y, 0); x < width; x = foreground.nextSetInRow(y, x)) {
+                int end = foreground.nextClearInRow(y, x);
+                for (int i = y * width + x; x < end; x++, i++) {
+                    //SEQUENTIAL CONNECTED COMPONENT
+                    //the north and west pixels were scanned already so they hold a label or 0 for the background, pixels
+                    //that do not exist (above the first row or left of the first column) are treated as 0 pixels
+                    short north = y > 0 ? imageArray[i - width] : 0;
+                    short west = x > 0 ? imageArray[i - 1] : 0;
+                    //if the N pixel has a label and the W does not: assign the value of the N pixel to the current pixel
+                    if (north > 1 && west < 2) {
+                        imageArray[i] = north;
+                        //if the W pixel has a label and the N does not: assign the value of the W pixel to the current pixel
+                    } else if (west > 1 && north < 2) {
+                        imageArray[i] = west;
+                        //if they both have a label and it is the same
+                    } else if (north == west && north > 1) {
+                        imageArray[i] = north;
+                        //if they both have labels AND they are both different ones
+                    } else if (north > 1 && west > 1) {
+                        imageArray[i] = north;
+                        //(west, north)
+                        equivTab.assignNewValue(west, north);
+                    } else if (equivTab.labelCount == Short.MAX_VALUE) {
+                        //out of short labels: clear the labels so far and label the image again with int wide labels
+                        Arrays.fill(imageArray, 0, i, (short) 0);
+                        labelWide(filtersize, featuresOnly, 1);
+                        return;
+                    } else {
+                        imageArray[i] = equivTab.getLabelNumber();
+                        equivTab.createNewLabel(imageArray[i]);
+                    }
+                    if (featuresOnly) {
+                        features.add(imageArray[i], x, y);
+                    }
+                }
+            }
+        }
+        finishComponents(equivTab, null, features, filtersize);
+    }
+
+    /**
+     * First pass into the int provisional labels (see labelStripes), used for the parallel stripes and for images
+     * with more provisional labels than a short can hold
+     */
+    private void labelWide(int filtersize, boolean featuresOnly, int stripes) {
+        int[] provisional = provisionalLabels;
+        if (provisional == null || provisional.length != imageArray.length) {
+            provisional = new int[imageArray.length];
+            provisionalLabels = provisional;
+        }
+        FeatureAccumulator features = featuresOnly ? new FeatureAccumulator(0) : null;
+        EquivalenceTable equivTab = labelStripes(stripes, provisional, features);
+        finishComponents(equivTab, provisional, features, filtersize);
+    }
+
+    /**
+     * Parallel first pass: every stripe of rows is labeled on its own fork-join task into the provisional array, with
+     * its own equivalence table and feature sums that only grow as far as the labels it hands out. The stripes are
+     * then offset into one range in stripe order and the labels touching across each stripe border are unioned.
+     * Labels grow in raster order across the stripes so the lowest label of every set is still the label of the
+     * first pixel of its component, just like the single raster scan
+     */
+    private EquivalenceTable labelStripes(int stripes, int[] provisional, FeatureAccumulator features) {
+        int rowsPerStripe = (height + stripes - 1) / stripes;
+        stripes = (height + rowsPerStripe - 1) / rowsPerStripe;
+        if (stripes == 1) {
+            EquivalenceTable equivTab = new EquivalenceTable();
+            labelStripe(0, height, provisional, equivTab, features);
+            return equivTab;
+        }
+        EquivalenceTable[] tables = new EquivalenceTable[stripes];
+        FeatureAccumulator[] stripeFeatures = new FeatureAccumulator[stripes];
+        int[] labelCounts = new int[stripes];
+        List<RecursiveAction> tasks = new ArrayList<>(stripes);
+        for (int k = 0; k < stripes; k++) {
+            int stripe = k;
+            int firstRow = k * rowsPerStripe;
+            int lastRow = Math.min(height, firstRow + rowsPerStripe);
+            tasks.add(new RecursiveAction() {
+                @Override
+                protected void compute() {
+                    tables[stripe] = new EquivalenceTable();
+                    stripeFeatures[stripe] = features == null ? null : new FeatureAccumulator(256);
+                    labelCounts[stripe] = labelStripe(firstRow, lastRow, provisional, tables[stripe], stripeFeatures[stripe]);
+                }
+            });
+        }
+        ForkJoinTask.invokeAll(tasks);
+
+        //stripe k's local label l becomes l + offsets[k]
+        int[] offsets = new int[stripes];
+        int labelLimit = 2;
+        for (int k = 0; k < stripes; k++) {
+            offsets[k] = labelLimit - 2;
+            labelLimit += labelCounts[k];
+        }
+        EquivalenceTable equivTab = new EquivalenceTable(labelLimit);
+        if (features != null) {
+            features.ensureCapacity(labelLimit - 1);
+        }
+        for (int k = 0; k < stripes; k++) {
+            for (int label = 2; label < labelCounts[k] + 2; label++) {
+                //the offset keeps every root the lowest label of its set
+                equivTab.parent[label + offsets[k]] = tables[k].parent[label] + offsets[k];
+                if (features != null) {
+                    stripeFeatures[k].mergeInto(label, features, label + offsets[k]);
+                }
+            }
+        }
+        tasks.clear();
+        for (int k = 1; k < stripes; k++) {
+            int offset = offsets[k];
+            int first = k * rowsPerStripe * width;
+            int last = Math.min(height, (k + 1) * rowsPerStripe) * width;
+            tasks.add(new RecursiveAction() {
+                @Override
+                protected void compute() {
+                    for (int i = first; i < last; i++) {
+                        if (provisional[i] != 0) {
+                            provisional[i] += offset;
+                        }
+                    }
+                }
+            });
+        }
+        ForkJoinTask.invokeAll(tasks);
+
+        //merge the equivalences across stripe borders
+        for (int k = 1; k < stripes; k++) {
+            int border = k * rowsPerStripe * width;
+            for (int x = 0; x < width; x++) {
+                int north = provisional[border - width + x];
+                int south = provisional[border + x];
+                if (north != 0 && south != 0) {
+                    equivTab.assignNewValue(south, north);
+                }
+            }
+        }
+        return equivTab;
+    }
+
+    /**
+     * Sequential connected component over rows firstRow (inclusive) to lastRow (exclusive), the row above the stripe
+     * is treated as background and new labels are handed out from 2 upwards, returns how many were handed out
+     */
+    private int labelStripe(int firstRow, int lastRow, int[] provisional, EquivalenceTable equivTab,
+                            FeatureAccumulator features) {
+        int nextLabel = 2;
+        Arrays.fill(provisional, firstRow * width, lastRow * width, 0);
+        for (int y = firstRow; y < lastRow; y++) {
+            for (int x = foreground.nextSetInRow(y, 0); x < width; x = foreground.nextSetInRow(y, x)) {
+                int end = foreground.nextClearInRow(y, x);
+                for (int i = y * width + x; x < end; x++, i++) {
+                    int north = y > firstRow ? provisional[i - width] : 0;
+                    int west = x > 0 ? provisional[i - 1] : 0;
+                    if (north != 0 && west != 0) {
+                        provisional[i] = north;
+                        if (north != west) {
+                            equivTab.assignNewValue(west, north);
+                        }
+                    } else if (north != 0) {
+                        provisional[i] = north;
+                    } else if (west != 0) {
+                        provisional[i] = west;
+                    } else {
+                        provisional[i] = nextLabel;
+                        equivTab.createNewLabel(nextLabel++);
+                    }
+                    if (features != null) {
+                        features.add(provisional[i], x, y);
+                    }
+                }
+            }
+        }
+        return nextLabel - 2;
+    }
+
+    /**
+     * Alternative to connectedComponent that encodes the binary image as runs and labels whole runs: every run gets
+     * its own label (its index + 2) and is unioned with the runs it overlaps on the row above, features are summed
+     * per run. Runs are numbered in raster order so the labels and components are the same as the pixel labelers'
+     */
+    public void runLengthComponent(int filtersize, boolean featuresOnly) {
+        //paintRuns only writes the foreground, the labels are written over the background left by the last image
+        Arrays.fill(imageArray, (short) 0);
+        runImage.build(foreground);
+        int runCount = runImage.getRunCount();
+        int[] runStart = runImage.runStart;
+        int[] runEnd = runImage.runEnd;
+        EquivalenceTable equivTab = new EquivalenceTable(runCount + 2);
+        FeatureAccumulator features = featuresOnly ? new FeatureAccumulator(runCount + 2) : null;
+        for (int y = 0; y < height; y++) {
+            int above = y > 0 ? runImage.getRowStart(y - 1) : 0;
+            int aboveEnd = y > 0 ? runImage.getRowEnd(y - 1) : 0;
+            for (int r = runImage.getRowStart(y); r < runImage.getRowEnd(y); r++) {
+                int label = r + 2;
+                equivTab.createNewLabel(label);
+                //runs above that end before this one starts can not touch this or any later run
+                while (above < aboveEnd && runEnd[above] < runStart[r]) {
+                    above++;
+                }
+                //4-connected: the runs share at least one column
+                for (int n = above; n < aboveEnd && runStart[n] <= runEnd[r]; n++) {
+                    equivTab.assignNewValue(label, n + 2);
+                }
+                if (featuresOnly) {
+                    features.addRun(label, y, runStart[r], runEnd[r]);
+                }
+            }
+        }
+        short[] lookup = collapseLabels(equivTab, () -> {
+            long[] areas = new long[runCount + 2];
+            for (int r = 0; r < runCount; r++) {
+                areas[r + 2] = runEnd[r] - runStart[r] + 1;
+            }
+            return areas;
+        }, filtersize);
+        if (featuresOnly) {
+            createComponents(lookup, features, filtersize);
+            paintRuns(lookup, false);
+            return;
+        }
+        addComponents(itemCount);
+        paintRuns(lookup, true);
+        profiler.begin(DetectionMetrics.Stage.SIZE_FILTER);
+        componentSizeFilter(filtersize);
+        if (calculate) {
+            profiler.begin(DetectionMetrics.Stage.CALCULATIONS);
+            runCalculations();
+        }
+    }
+
+    /**
+     * Writes the final label of every run into the image, and adds its pixels to its component when asked to
+     */
+    private void paintRuns(short[] lookup, boolean addPixels) {
+        for (int y = 0; y < height; y++) {
+            for (int r = runImage.getRowStart(y); r < runImage.getRowEnd(y); r++) {
+                short label = lookup[r + 2];
+                int rowOffset = y * width;
+                for (int i = rowOffset + runImage.getRunStart(r); i <= rowOffset + runImage.getRunEnd(r); i++) {
+                    imageArray[i] = label;
+                    //0 when collapseLabels already filtered the component out
+                    if (label == 0) {
+                        foreground.clear(i);
+                    } else if (addPixels) {
+                        listOfItems.get(label - 2).addPixel(i);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Calls to other methods to finish algorithm: collapses the labels, builds the components, filters them and runs
+     * their calculations. provisional holds the first pass labels, or is null when they were written into imageArray
+     */
+    private void finishComponents(EquivalenceTable equivTab, int[] provisional, FeatureAccumulator features, int filtersize) {
+        if (features != null) {
+            createComponents(collapseLabels(equivTab, () -> features.area, filtersize), provisional, features, filtersize);
+            return;
+        }
+        short[] lookup = collapseLabels(equivTab, () -> provisionalAreas(provisional, equivTab.getCapacity()), filtersize);
+        createComponents(lookup, provisional);
+        profiler.begin(DetectionMetrics.Stage.SIZE_FILTER);
+        componentSizeFilter(filtersize);
+        if (calculate) {
+            profiler.begin(DetectionMetrics.Stage.CALCULATIONS);
+            runCalculations();
+        }
+    }
+
+    /**
+     * Runs the calculations of the selected features for each component so that they generate their metrics, when the
+     * perimeter is selected every perimeter is collected at once from the word-parallel boundary of the foreground
+     */
+    void runCalculations() {
+        if (features.contains(Feature.PERIMETER) || features.contains(Feature.COMPACTNESS)) {
+            collectPerimeters();
+        }
+        for (ConnectedComponent cc : listOfItems) {
+            cc.runCalculations(width, height, medialAxisMetric, features);
+        }
+        if (profiler.isEnabled() && features.contains(Feature.MEDIAL_AXIS)) {
+            long axisPixels = 0;
+            for (ConnectedComponent cc : listOfItems) {
+                axisPixels += cc.skeletonSize;
+            }
+            profiler.count(DetectionMetrics.Counter.MEDIAL_AXIS_PIXELS, axisPixels);
+        }
+    }
+
+    private void collectPerimeters() {
+        ConnectedComponent[] byLabel = new ConnectedComponent[itemCount + listOfItems.size() + 2];
+        for (ConnectedComponent cc : listOfItems) {
+            if (cc.label >= byLabel.length) {
+                byLabel = Arrays.copyOf(byLabel, cc.label + 1);
+            }
+            byLabel[cc.label] = cc;
+        }
+        foreground.boundary(boundary);
+        //the boundary is walked in raster order so each perimeter comes out in the order of the component's pixels
+        for (int p = boundary.nextSetBit(0); p >= 0; p = boundary.nextSetBit(p + 1)) {
+            byLabel[imageArray[p]].perimeter.add(p);
+        }
+        for (ConnectedComponent cc : listOfItems) {
+            cc.computed |= Feature.PERIMETER.mask;
+        }
+    }
+
+    private void addComponents(int count) {
+        for (int i = 0; i < count; i++) {
+            ConnectedComponent cc = new ConnectedComponent();
+            cc.label = listOfItems.size() + 2;
+            listOfItems.add(cc);
+        }
+    }
+
+    /**
+     * Collapse our labels so each component only has 1 and shift them down so they are sequential
+     * returns a lookup table from every provisional label to its final label (starting with 2)
+     */
+    public short[] collapseLabels(EquivalenceTable equivTab) {
+        return collapseLabels(equivTab, null, 0);
+    }
+
+    /**
+     * Same as collapseLabels, but when there are more components than the short label image can hold only those with
+     * at least filterSize pixels are numbered (areas gives the pixel count of every provisional label) and the rest
+     * map to the background, so the limit applies to the components that survive the filter
+     */
+    short[] collapseLabels(EquivalenceTable equivTab, Supplier<long[]> areas, int filterSize) {
+        short[] lookup = new short[equivTab.getCapacity()];
+        int provisional = 0;
+        int roots = 0;
+        for (int label = 2; label < lookup.length; label++) {
+            //labels that were never handed out resolve to 0 and so map to the background
+            int root = equivTab.find(label);
+            if (root == label) {
+                roots++;
+            }
+            if (root != 0) {
+                provisional++;
+            }
+        }
+        long[] rootAreas = null;
+        if (roots > Short.MAX_VALUE - 1 && areas != null) {
+            long[] labelAreas = areas.get();
+            rootAreas = new long[lookup.length];
+            for (int label = 2; label < Math.min(lookup.length, labelAreas.length); label++) {
+                rootAreas[equivTab.find(label)] += labelAreas[label];
+            }
+        }
+        for (int label = 2; label < lookup.length; label++) {
+            int root = equivTab.find(label);
+            //the root is the lowest label of its set so it is always numbered before the rest of the set
+            if (root == label) {
+                if (rootAreas != null && rootAreas[label] < filterSize) {
+                    continue;
+                }
+                if (itemCount == Short.MAX_VALUE - 1) {
+                    throw new IllegalStateException("More than " + (Short.MAX_VALUE - 1) + " components do not fit the "
+                            + "short label image, use a StreamingLabeler for the features of images this busy");
+                }
+                itemCount++;
+                lookup[label] = (short) (itemCount + 1);
+            } else {
+                lookup[label] = lookup[root];
+            }
+        }
+        //every union that joined two sets took one set away
+        profiler.count(DetectionMetrics.Counter.PROVISIONAL_LABELS, provisional);
+        profiler.count(DetectionMetrics.Counter.EQUIVALENCES_MERGED, provisional - roots);
+        profiler.count(DetectionMetrics.Counter.COMPONENTS_BEFORE_FILTER, roots);
+        return lookup;
+    }
+
+    //pixel count of every provisional label, read from the int labels or from the short labels in imageArray
+    private long[] provisionalAreas(int[] provisional, int capacity) {
+        long[] areas = new long[capacity];
+        for (int p = 0; p < imageArray.length; p++) {
+            int label = provisional == null ? imageArray[p] : provisional[p];
+            if (label > 1) {
+                areas[label]++;
+            }
+        }
+        return areas;
+    }
+
+    /**
+     * For each item, create a new ConnectedComponent and add it to our list of items
+     * then relabel the image through the lookup table and bucket every pixel into its component in a single sweep
+     */
+    private void createComponents(short[] lookup, int[] provisional) {
+        addComponents(itemCount);
+        for (int p = 0; p < imageArray.length; p++) {
+            int provisionalLabel = provisional == null ? imageArray[p] : provisional[p];
+            if (provisionalLabel > 1) {
+                short label = lookup[provisionalLabel];
+                imageArray[p] = label;
+                //0 when collapseLabels already filtered the component out
+                if (label == 0) {
+                    foreground.clear(p);
+                } else {
+                    listOfItems.get(label - 2).addPixel(p);
+                }
+            }
+        }
+    }
+
+    /**
+     * Features-only version of createComponents: folds the sums of every provisional label into its final label,
+     * drops the components smaller than the filter size and then relabels the image in a single sweep
+     */
+    private void createComponents(short[] lookup, int[] provisional, FeatureAccumulator features, int filterSize) {
+        createComponents(lookup, features, filterSize);
+        for (int p = 0; p < imageArray.length; p++) {
+            int provisionalLabel = provisional == null ? imageArray[p] : provisional[p];
+            if (provisionalLabel > 1) {
+                imageArray[p] = lookup[provisionalLabel];
+            }
+        }
+    }
+
+    /**
+     * Builds the components from the merged sums and rewrites the lookup table so filtered labels map to 0
+     */
+    private void createComponents(short[] lookup, FeatureAccumulator features, int filterSize) {
+        FeatureAccumulator merged = new FeatureAccumulator(itemCount + 2);
+        for (int label = 2; label < lookup.length; label++) {
+            features.mergeInto(label, merged, lookup[label]);
+        }
+        //build the surviving components, filtered labels are sent to the background
+        short[] survivors = new short[itemCount + 2];
+        int numOfComp = itemCount;
+        for (int label = 2; label < numOfComp + 2; label++) {
+            if (merged.getArea(label) < filterSize) {
+                itemCount--;
+            } else {
+                ConnectedComponent item = new ConnectedComponent();
+                item.label = label;
+                merged.applyTo(label, item);
+                listOfItems.add(item);
+                survivors[label] = (short) label;
+            }
+        }
+        for (int label = 2; label < lookup.length; label++) {
+            lookup[label] = survivors[lookup[label]];
+        }
+    }
+
+    /**
+     * Filter out all components with size less than passed in filter size arg
+     * set those components to background pixels
+     */
+    void componentSizeFilter(int filterSize) {
+        //we have to use an iterator to prevent concurrent modification
+        Iterator<ConnectedComponent> iter = listOfItems.iterator();
+        while (iter.hasNext()) {
+            ConnectedComponent cc = iter.next();
+            if (cc.getArea() < filterSize) {
+                int[] pixels = cc.pixels.values;
+                for (int i2 = 0; i2 < cc.pixels.size(); i2++) {
+                    imageArray[pixels[i2]] = 0;
+                    foreground.clear(pixels[i2]);
+                }
+                iter.remove();
+                itemCount--;
+            }
+        }
+    }
+}
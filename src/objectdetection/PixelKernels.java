@@ -0,0 +1,53 @@
+package objectdetection;
+
+import java.nio.ByteBuffer;
+
+/**
+ * @author Andrew King
+ *         The per-pixel loops every frame goes through (thresholding straight into the bit-packed binary image and
+ *         histogramming).
+ *         get() returns the SIMD version from src-vector when the jdk.incubator.vector module is present
+ *         (run with --add-modules jdk.incubator.vector) and the scalar version otherwise, setting the system property
+ *         objectdetection.kernels=scalar forces the scalar version
+ */
+public interface PixelKernels {
+
+    static PixelKernels get() { return Loader.KERNELS; }
+
+    /**
+     * Packs the width gray values starting at absolute index offset into the words starting at wordOffset, bit x is
+     * set where the unsigned gray value of pixel offset + x is <= threshold (the bits past width are left 0)
+     */
+    void threshold(ByteBuffer gray, int offset, int width, int threshold, long[] words, int wordOffset);
+
+    /**
+     * Adds the gray values at absolute indexes offset to offset + length - 1 to the 256 counts
+     */
+    void histogram(ByteBuffer gray, int offset, int length, int[] counts);
+
+    /**
+     * Name of the implementation (for logs and benchmarks)
+     */
+    String getName();
+
+    final class Loader {
+
+        static final PixelKernels KERNELS = load();
+
+        private Loader() {
+        }
+
+        private static PixelKernels load() {
+            if (!"scalar".equals(System.getProperty("objectdetection.kernels"))
+                    && ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent()) {
+                try {
+                    //loaded by name so this class still compiles and runs without the vector sources or module
+                    return (PixelKernels) Class.forName("objectdetection.VectorKernels").getDeclaredConstructor().newInstance();
+                } catch (ReflectiveOperationException | LinkageError e) {
+                    System.err.println("Vector kernels unavailable, using scalar kernels: " + e);
+                }
+            }
+            return new ScalarKernels();
+        }
+    }
+}
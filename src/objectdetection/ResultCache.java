@@ -0,0 +1,470 @@
+package objectdetection;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipException;
+
+/**
+ * @author Andrew King
+ *         Content-addressed cache of detection results, keyed by a 128 bit hash of the gray scale bytes, the image
+ *         size and the detection parameters, so a re-submitted frame gets its labels and component features back
+ *         without running the pipeline. The memory tier is an LRU bounded by the estimated bytes of its results,
+ *         results it evicts spill to the optional disk tier (one deflated file per result, also LRU bounded by
+ *         bytes) and come back from it on a hit. Safe to share between threads, two threads missing on the same
+ *         frame may both run the detection. Every caller gets the same DetectionResult, which is immutable so no
+ *         caller can change it for the others. The disk file names only depend on the pixels and the parameters, so a
+ *         cache opened on the directory of an earlier run hits the results it left there. Files that are damaged or
+ *         were written by another version are deleted when they are read and the result is detected again
+ */
+public class ResultCache {
+
+    private static final String SUFFIX = ".result";
+    private static final int FILE_VERSION = 2;
+
+    private final long maxBytes;
+    //null when there is no disk tier
+    private final Path directory;
+    private final long maxDiskBytes;
+
+    //both maps are in access order, the eldest entry is the least recently used
+    private final LinkedHashMap<Key, DetectionResult> memory = new LinkedHashMap<>(64, 0.75f, true);
+    private final LinkedHashMap<String, Long> disk = new LinkedHashMap<>(64, 0.75f, true);
+    private long bytes;
+    private long diskBytes;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong diskHits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong diskEvictions = new AtomicLong();
+
+    /**
+     * Memory only cache holding results of up to maxBytes in total
+     */
+    public ResultCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+        this.directory = null;
+        this.maxDiskBytes = 0;
+    }
+
+    /**
+     * Cache with a disk tier in the directory (created if needed), results already there from an earlier run are
+     * picked up in the order they were last used
+     */
+    public ResultCache(long maxBytes, Path directory, long maxDiskBytes) throws IOException {
+        this.maxBytes = maxBytes;
+        this.directory = directory;
+        this.maxDiskBytes = maxDiskBytes;
+        Files.createDirectories(directory);
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + SUFFIX)) {
+            stream.forEach(files::add);
+        }
+        List<FileTime> times = new ArrayList<>();
+        for (Path file : files) {
+            times.add(Files.getLastModifiedTime(file));
+        }
+        Integer[] order = new Integer[files.size()];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (x, y) -> times.get(x).compareTo(times.get(y)));
+        for (int i : order) {
+            long size = Files.size(files.get(i));
+            disk.put(files.get(i).getFileName().toString(), size);
+            diskBytes += size;
+        }
+        trimDisk();
+    }
+
+    /**
+     * Identity of a detection: what the gray bytes hash to, the image size and the parameters that change the output
+     */
+    public static final class Key {
+
+        final long hashHigh;
+        final long hashLow;
+        final int width;
+        final int height;
+        //stable text form of the parameters, see describe
+        final String params;
+
+        Key(long hashHigh, long hashLow, int width, int height, String params) {
+            this.hashHigh = hashHigh;
+            this.hashLow = hashLow;
+            this.width = width;
+            this.height = height;
+            this.params = params;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return hashHigh == other.hashHigh && hashLow == other.hashLow && width == other.width
+                    && height == other.height && params.equals(other.params);
+        }
+
+        @Override
+        public int hashCode() {
+            return Long.hashCode(hashLow) * 31 + params.hashCode();
+        }
+
+        //file of the result in the disk tier, the same in every run, the parameters are checked against the copy in the file
+        String fileName() {
+            //64 bit FNV-1a of the parameters
+            long hash = 0xCBF29CE484222325L;
+            for (int i = 0; i < params.length(); i++) {
+                hash = (hash ^ params.charAt(i)) * 0x100000001B3L;
+            }
+            return String.format("%016x%016x-%dx%d-%016x%s", hashHigh, hashLow, width, height, hash, SUFFIX);
+        }
+    }
+
+    /**
+     * Text form of the parameters that change the result, built from enum names and numbers only so it is the same in
+     * every run: the settings of the other threshold methods and the labeling strategy (stripes, runs) are left out
+     */
+    static String describe(DetectionParameters params) {
+        StringBuilder text = new StringBuilder(params.getThresholdMethod().name());
+        switch (params.getThresholdMethod()) {
+            case SIMPLE:
+                text.append(" threshold=").append(params.getThreshold());
+                break;
+            case ADAPTIVE:
+                text.append(" window=").append(params.getAdaptiveWindow());
+                break;
+            case DOUBLE:
+                text.append(" connectivity=").append(params.getHysteresisConnectivity());
+                break;
+            case BRADLEY:
+                text.append(" window=").append(params.getLocalWindow())
+                        .append(" sensitivity=").append(params.getBradleySensitivity());
+                break;
+            case SAUVOLA:
+                text.append(" window=").append(params.getLocalWindow()).append(" k=").append(params.getSauvolaK());
+                break;
+            default:
+                break;
+        }
+        text.append(" filter=").append(params.getFilterSize()).append(" featuresOnly=").append(params.isFeaturesOnly())
+                .append(" medialAxis=").append(params.getMedialAxisMetric().name()).append(" features=");
+        //EnumSet iterates in declaration order
+        for (Feature feature : params.getFeatures()) {
+            text.append(feature.name()).append(',');
+        }
+        return text.toString();
+    }
+
+    /**
+     * Key of the width x height gray image in the buffer (read from its position) for the parameters
+     */
+    public static Key key(ByteBuffer gray, int width, int height, DetectionParameters params) {
+        ByteBuffer pixels = gray.slice().order(ByteOrder.LITTLE_ENDIAN);
+        int length = width * height;
+        if (pixels.remaining() < length) {
+            throw new IllegalArgumentException("Expected " + length + " pixels but the buffer only has " + pixels.remaining());
+        }
+        //two independently seeded multiply-rotate lanes over 8 bytes at a time, then a murmur style finish
+        long high = 0x9E3779B97F4A7C15L ^ length;
+        long low = 0xC2B2AE3D27D4EB4FL + length;
+        int i = 0;
+        for (; i + 8 <= length; i += 8) {
+            long value = pixels.getLong(i);
+            high = Long.rotateLeft(high ^ value * 0x87C37B91114253D5L, 31) * 0x4CF5AD432745937FL;
+            low = Long.rotateLeft(low + value * 0x52DCE729L, 27) * 0x9E3779B97F4A7C15L + 0x38495AB5L;
+        }
+        for (; i < length; i++) {
+            long value = pixels.get(i) & 0xFF;
+            high = Long.rotateLeft(high ^ value * 0x87C37B91114253D5L, 31) * 0x4CF5AD432745937FL;
+            low = Long.rotateLeft(low + value * 0x52DCE729L, 27) * 0x9E3779B97F4A7C15L + 0x38495AB5L;
+        }
+        high = finish(high ^ low);
+        low = finish(low + high);
+        return new Key(high, low, width, height, describe(params));
+    }
+
+    private static long finish(long h) {
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        h *= 0xC4CEB9FE1A85EC53L;
+        return h ^ (h >>> 33);
+    }
+
+    /**
+     * The cached result for the image and parameters, or the result of running the detector (which is then cached)
+     */
+    public DetectionResult detect(ObjectDetector detector, ByteBuffer gray, int width, int height, DetectionParameters params)
+            throws IOException {
+        Key key = key(gray, width, height, params);
+        DetectionResult result = get(key);
+        if (result == null) {
+            result = detector.detect(gray, width, height, params);
+            put(key, result);
+        }
+        return result;
+    }
+
+    public DetectionResult detect(ObjectDetector detector, DtImage image, DetectionParameters params) throws IOException {
+        return detect(detector, image.getPixels(), image.getWidth(), image.getHeight(), params);
+    }
+
+    /**
+     * The cached result for the key from memory or disk, null (and counted as a miss) when there is none
+     */
+    public DetectionResult get(Key key) throws IOException {
+        synchronized (this) {
+            DetectionResult result = memory.get(key);
+            if (result != null) {
+                hits.incrementAndGet();
+                return result;
+            }
+            if (directory == null || disk.get(key.fileName()) == null) {
+                misses.incrementAndGet();
+                return null;
+            }
+        }
+        DetectionResult result = readResult(directory.resolve(key.fileName()), key);
+        if (result == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        diskHits.incrementAndGet();
+        put(key, result);
+        return result;
+    }
+
+    /**
+     * Caches the result, spilling the least recently used results to disk (or dropping them) to stay in bounds
+     */
+    public void put(Key key, DetectionResult result) throws IOException {
+        List<Map.Entry<Key, DetectionResult>> spilled = new ArrayList<>();
+        synchronized (this) {
+            DetectionResult old = memory.put(key, result);
+            if (old != null) {
+                bytes -= estimateSize(old);
+            }
+            bytes += estimateSize(result);
+            Iterator<Map.Entry<Key, DetectionResult>> iter = memory.entrySet().iterator();
+            //a result bigger than the whole tier is still kept until the next one comes in
+            while (bytes > maxBytes && memory.size() > 1) {
+                Map.Entry<Key, DetectionResult> eldest = iter.next();
+                iter.remove();
+                bytes -= estimateSize(eldest.getValue());
+                evictions.incrementAndGet();
+                spilled.add(eldest);
+            }
+        }
+        if (directory != null) {
+            for (Map.Entry<Key, DetectionResult> entry : spilled) {
+                writeResult(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    /**
+     * Estimated bytes held by a result: the label image, the pixel lists and the medial axes
+     */
+    static long estimateSize(DetectionResult result) {
+        long size = 64 + 2L * result.getWidth() * result.getHeight();
+        for (ConnectedComponent cc : result.getComponents()) {
+            size += cc.estimateSize();
+        }
+        return size;
+    }
+
+    private void writeResult(Key key, DetectionResult result) throws IOException {
+        String name = key.fileName();
+        synchronized (this) {
+            if (disk.containsKey(name)) {
+                return;
+            }
+        }
+        //written to a temporary file and moved so a reader never sees half a result
+        Path temporary = Files.createTempFile(directory, name, ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new DeflaterOutputStream(
+                Files.newOutputStream(temporary), new Deflater(Deflater.BEST_SPEED), 64 * 1024)))) {
+            out.writeInt(FILE_VERSION);
+            out.writeUTF(key.params);
+            out.writeInt(result.getWidth());
+            out.writeInt(result.getHeight());
+            short[] labels = result.getLabels();
+            for (short label : labels) {
+                out.writeShort(label);
+            }
+            out.writeInt(result.getItemCount());
+            for (ConnectedComponent cc : result.getComponents()) {
+                cc.write(out);
+            }
+        }
+        Path file = directory.resolve(name);
+        Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        long size = Files.size(file);
+        synchronized (this) {
+            Long old = disk.put(name, size);
+            diskBytes += size - (old == null ? 0 : old);
+        }
+        trimDisk();
+    }
+
+    //null if the file is gone, damaged, from another file version or for other parameters with the same hash, the
+    //last three are deleted so they no longer count against the disk tier
+    private DetectionResult readResult(Path file, Key key) throws IOException {
+        DetectionResult result;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new InflaterInputStream(
+                Files.newInputStream(file)), 64 * 1024))) {
+            result = readResult(in, key);
+        } catch (NoSuchFileException e) {
+            synchronized (this) {
+                Long old = disk.remove(file.getFileName().toString());
+                diskBytes -= old == null ? 0 : old;
+            }
+            return null;
+        } catch (EOFException | ZipException | StreamCorruptedException | IndexOutOfBoundsException e) {
+            //truncated, not deflate data, or sizes and values that do not fit the image
+            result = null;
+        }
+        if (result == null) {
+            synchronized (this) {
+                Long old = disk.remove(file.getFileName().toString());
+                diskBytes -= old == null ? 0 : old;
+                diskEvictions.incrementAndGet();
+            }
+            Files.deleteIfExists(file);
+            return null;
+        }
+        Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+        return result;
+    }
+
+    //null if the file is from another version or for other parameters, throws when the content does not add up
+    private static DetectionResult readResult(DataInputStream in, Key key) throws IOException {
+        if (in.readInt() != FILE_VERSION || !in.readUTF().equals(key.params)) {
+            return null;
+        }
+        int width = in.readInt();
+        int height = in.readInt();
+        if (width != key.width || height != key.height) {
+            throw new StreamCorruptedException("Result of " + width + "x" + height + " in the file of a " + key.width
+                    + "x" + key.height + " image");
+        }
+        short[] labels = new short[width * height];
+        for (int i = 0; i < labels.length; i++) {
+            labels[i] = in.readShort();
+        }
+        int count = in.readInt();
+        //every component has at least one pixel and a short label
+        if (count < 0 || count > Math.min(labels.length, Short.MAX_VALUE - 1)) {
+            throw new StreamCorruptedException(count + " components in a " + width + "x" + height + " result");
+        }
+        List<ConnectedComponent> components = new ArrayList<>(count);
+        boolean[] hasPixels = new boolean[count];
+        int maxLabel = 1;
+        for (int i = 0; i < count; i++) {
+            ConnectedComponent cc = new ConnectedComponent();
+            hasPixels[i] = cc.read(in);
+            if (cc.area > labels.length) {
+                throw new StreamCorruptedException("Component of " + cc.area + " pixels in a " + width + "x" + height + " result");
+            }
+            components.add(cc);
+            maxLabel = Math.max(maxLabel, cc.label);
+        }
+        //the pixel lists come back from the label image in raster order, the order the labelers add them in
+        ConnectedComponent[] byLabel = new ConnectedComponent[maxLabel + 1];
+        for (int i = 0; i < count; i++) {
+            if (hasPixels[i]) {
+                ConnectedComponent cc = components.get(i);
+                cc.pixels = new IntList(cc.area);
+                byLabel[cc.label] = cc;
+            }
+        }
+        for (int p = 0; p < labels.length; p++) {
+            int label = labels[p];
+            if (label > 1 && label < byLabel.length && byLabel[label] != null) {
+                byLabel[label].pixels.add(p);
+            }
+        }
+        //reading to the end makes the inflater check the checksum of the data
+        if (in.read() != -1) {
+            throw new StreamCorruptedException("Data after the result");
+        }
+        return new DetectionResult(width, height, labels, components);
+    }
+
+    //drops the least recently used files until the disk tier is in bounds
+    private void trimDisk() throws IOException {
+        while (true) {
+            String eldest;
+            synchronized (this) {
+                if (diskBytes <= maxDiskBytes || disk.isEmpty()) {
+                    return;
+                }
+                Map.Entry<String, Long> entry = disk.entrySet().iterator().next();
+                eldest = entry.getKey();
+                disk.remove(eldest);
+                diskBytes -= entry.getValue();
+                diskEvictions.incrementAndGet();
+            }
+            Files.deleteIfExists(directory.resolve(eldest));
+        }
+    }
+
+    /**
+     * Empties the memory tier (the disk tier is kept), the counters are not reset
+     */
+    public synchronized void clear() {
+        memory.clear();
+        bytes = 0;
+    }
+
+    public long getHits() { return hits.get(); }
+
+    public long getDiskHits() { return diskHits.get(); }
+
+    public long getMisses() { return misses.get(); }
+
+    public long getEvictions() { return evictions.get(); }
+
+    public long getDiskEvictions() { return diskEvictions.get(); }
+
+    public synchronized int getEntryCount() { return memory.size(); }
+
+    public synchronized long getBytes() { return bytes; }
+
+    public synchronized int getDiskEntryCount() { return disk.size(); }
+
+    public synchronized long getDiskBytes() { return diskBytes; }
+
+    @Override
+    public String toString() {
+        return "hits: " + getHits() + " disk hits: " + getDiskHits() + " misses: " + getMisses() + " evictions: "
+                + getEvictions() + " disk evictions: " + getDiskEvictions() + " entries: " + getEntryCount()
+                + " (" + getBytes() / 1024 + " KB) disk entries: " + getDiskEntryCount() + " (" + getDiskBytes() / 1024 + " KB)";
+    }
+}
@@ -0,0 +1,179 @@
+package objectdetection;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * @author Andrew King
+ *         Streams the features of each component (the values printObject reports) to a CSV or JSON lines file
+ *         safe to call from several workers, the rows of one image are always written together
+ *         The perimeter and compactness are left empty (null in JSON) when the calculations did not compute them
+ */
+public class ResultSink implements Closeable {
+
+    public enum Format {
+        CSV,
+        JSONL,
+        //binary struct-of-arrays file, see FeatureStoreWriter
+        COLUMNAR
+    }
+
+    static final String CSV_HEADER = "image,component,area,centroidX,centroidY,top,left,bottom,right,sinTwoTheta,cosTwoTheta,"
+            + "chiSquaredMin,a,b,c,eccentricity,perimeter,compactness";
+
+    private final Writer out;
+    private final Format format;
+
+    /**
+     * Text sink on the writer, the columnar format can not go through a writer (open a FeatureStoreWriter instead)
+     */
+    public ResultSink(Writer out, Format format) throws IOException {
+        if (format == Format.COLUMNAR) {
+            throw new IllegalArgumentException("The columnar format is binary, use a FeatureStoreWriter for it");
+        }
+        this.out = out;
+        this.format = format;
+        if (format == Format.CSV) {
+            out.write(CSV_HEADER);
+            out.write('\n');
+        }
+    }
+
+    /**
+     * For sinks that write the results their own way (overriding write, flush and close)
+     */
+    protected ResultSink(Format format) {
+        this.out = null;
+        this.format = format;
+    }
+
+    /**
+     * Opens a sink on the file, the format is picked from the extension (.jsonl or .json for JSON lines, .feat for a
+     * columnar FeatureStore, CSV otherwise)
+     */
+    public static ResultSink open(Path file) throws IOException {
+        String name = file.getFileName().toString().toLowerCase();
+        if (name.endsWith(".feat")) {
+            return new FeatureStoreWriter(file);
+        }
+        Format format = name.endsWith(".jsonl") || name.endsWith(".json") ? Format.JSONL : Format.CSV;
+        BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8);
+        return new ResultSink(writer, format);
+    }
+
+    /**
+     * Writes every component of the result, tagged with the image it came from
+     */
+    public synchronized void write(String image, DetectionResult result) throws IOException {
+        List<ConnectedComponent> components = result.getComponents();
+        if (format == Format.CSV) {
+            for (int i = 0; i < components.size(); i++) {
+                writeCsv(image, i, components.get(i));
+            }
+        } else {
+            writeJson(image, components);
+        }
+    }
+
+    private void writeCsv(String image, int index, ConnectedComponent cc) throws IOException {
+        StringBuilder row = new StringBuilder(192);
+        row.append(csvEscape(image)).append(',').append(index).append(',').append(cc.getArea())
+                .append(',').append(cc.getCentroidX()).append(',').append(cc.getCentroidY())
+                .append(',').append(cc.getTop()).append(',').append(cc.getLeft())
+                .append(',').append(cc.getTop() + cc.getHeight() + 2).append(',').append(cc.getLeft() + cc.getWidth() + 2)
+                .append(',').append(cc.getSinTwoTheta()).append(',').append(cc.getCosTwoTheta())
+                .append(',').append(cc.getChiSquaredMin())
+                .append(',').append(cc.getA()).append(',').append(cc.getB()).append(',').append(cc.getC())
+                .append(',').append(cc.getEccentricity()).append(',');
+        if (cc.isCalculated(Feature.PERIMETER)) {
+            row.append(cc.getPerimeterSize());
+        }
+        row.append(',');
+        if (cc.isCalculated(Feature.COMPACTNESS)) {
+            row.append(cc.getCompactness());
+        }
+        row.append('\n');
+        out.write(row.toString());
+    }
+
+    private void writeJson(String image, List<ConnectedComponent> components) throws IOException {
+        StringBuilder line = new StringBuilder(64 + components.size() * 256);
+        line.append("{\"image\":\"").append(jsonEscape(image)).append("\",\"items\":").append(components.size())
+                .append(",\"components\":[");
+        for (int i = 0; i < components.size(); i++) {
+            ConnectedComponent cc = components.get(i);
+            if (i > 0) {
+                line.append(',');
+            }
+            line.append("{\"area\":").append(cc.getArea())
+                    .append(",\"centroidX\":").append(cc.getCentroidX()).append(",\"centroidY\":").append(cc.getCentroidY())
+                    .append(",\"top\":").append(cc.getTop()).append(",\"left\":").append(cc.getLeft())
+                    .append(",\"bottom\":").append(cc.getTop() + cc.getHeight() + 2)
+                    .append(",\"right\":").append(cc.getLeft() + cc.getWidth() + 2);
+            appendJsonNumber(line.append(",\"sinTwoTheta\":"), cc.getSinTwoTheta());
+            appendJsonNumber(line.append(",\"cosTwoTheta\":"), cc.getCosTwoTheta());
+            appendJsonNumber(line.append(",\"chiSquaredMin\":"), cc.getChiSquaredMin());
+            appendJsonNumber(line.append(",\"a\":"), cc.getA());
+            appendJsonNumber(line.append(",\"b\":"), cc.getB());
+            appendJsonNumber(line.append(",\"c\":"), cc.getC());
+            appendJsonNumber(line.append(",\"eccentricity\":"), cc.getEccentricity());
+            line.append(",\"perimeter\":");
+            if (cc.isCalculated(Feature.PERIMETER)) {
+                line.append(cc.getPerimeterSize());
+            } else {
+                line.append("null");
+            }
+            appendJsonNumber(line.append(",\"compactness\":"),
+                    cc.isCalculated(Feature.COMPACTNESS) ? cc.getCompactness() : Double.NaN);
+            line.append('}');
+        }
+        line.append("]}\n");
+        out.write(line.toString());
+    }
+
+    //JSON has no NaN or Infinity so those are written as null
+    private static void appendJsonNumber(StringBuilder line, double value) {
+        if (Double.isFinite(value)) {
+            line.append(value);
+        } else {
+            line.append("null");
+        }
+    }
+
+    private static String csvEscape(String value) {
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0) {
+            return value;
+        }
+        return '"' + value.replace("\"", "\"\"") + '"';
+    }
+
+    private static String jsonEscape(String value) {
+        StringBuilder escaped = new StringBuilder(value.length() + 8);
+        for (int i = 0; i < value.length(); i++) {
+            char ch = value.charAt(i);
+            if (ch == '"' || ch == '\\') {
+                escaped.append('\\').append(ch);
+            } else if (ch < 0x20) {
+                escaped.append(String.format("\\u%04x", (int) ch));
+            } else {
+                escaped.append(ch);
+            }
+        }
+        return escaped.toString();
+    }
+
+    public synchronized void flush() throws IOException {
+        out.flush();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        out.close();
+    }
+}
@@ -0,0 +1,137 @@
+package objectdetection;
+
+import java.util.Arrays;
+
+/**
+ * @author Andrew King
+ *         Run-length encoded binary image: every row is stored as the horizontal runs of foreground pixels it holds,
+ *         in raster order, so large solid objects take a few ints per row instead of one value per pixel.
+ *         The run arrays are reused when the image is rebuilt
+ */
+public class RunLengthImage {
+
+    int width, height;
+    //runs of row y are rowStart[y] (inclusive) to rowStart[y + 1] (exclusive)
+    int[] rowStart = new int[1];
+    //first and last x of each run (inclusive)
+    int[] runStart = new int[0];
+    int[] runEnd = new int[0];
+    int runCount;
+
+    /**
+     * Encodes a binary image stored row by row, every non-zero value is foreground
+     */
+    public void build(short[] binary, int width, int height) {
+        this.width = width;
+        this.height = height;
+        if (rowStart.length < height + 1) {
+            rowStart = new int[height + 1];
+        }
+        runCount = 0;
+        for (int y = 0, i = 0; y < height; y++) {
+            rowStart[y] = runCount;
+            int x = 0;
+            while (x < width) {
+                //skip the background then take the foreground run that follows
+                while (x < width && binary[i + x] == 0) {
+                    x++;
+                }
+                if (x == width) {
+                    break;
+                }
+                int start = x;
+                while (x < width && binary[i + x] != 0) {
+                    x++;
+                }
+                addRun(start, x - 1);
+            }
+            i += width;
+        }
+        rowStart[height] = runCount;
+    }
+
+    /**
+     * Encodes a bit-packed binary image, the run boundaries are found a word at a time
+     */
+    public void build(BitImage binary) {
+        width = binary.getWidth();
+        height = binary.getHeight();
+        if (rowStart.length < height + 1) {
+            rowStart = new int[height + 1];
+        }
+        runCount = 0;
+        for (int y = 0; y < height; y++) {
+            rowStart[y] = runCount;
+            int x = binary.nextSetInRow(y, 0);
+            while (x < width) {
+                int end = binary.nextClearInRow(y, x);
+                addRun(x, end - 1);
+                x = binary.nextSetInRow(y, end);
+            }
+        }
+        rowStart[height] = runCount;
+    }
+
+    private void addRun(int start, int end) {
+        if (runCount == runStart.length) {
+            int capacity = Math.max(64, runCount * 2);
+            runStart = Arrays.copyOf(runStart, capacity);
+            runEnd = Arrays.copyOf(runEnd, capacity);
+        }
+        runStart[runCount] = start;
+        runEnd[runCount] = end;
+        runCount++;
+    }
+
+    /**
+     * Writes the runs back as a binary image (1 for foreground) into the array, which must hold width x height values
+     */
+    public void toBinary(short[] binary) {
+        Arrays.fill(binary, 0, width * height, (short) 0);
+        for (int y = 0; y < height; y++) {
+            for (int r = rowStart[y]; r < rowStart[y + 1]; r++) {
+                Arrays.fill(binary, y * width + runStart[r], y * width + runEnd[r] + 1, (short) 1);
+            }
+        }
+    }
+
+    public boolean isForeground(int x, int y) {
+        int from = rowStart[y];
+        int to = rowStart[y + 1] - 1;
+        //binary search for the last run starting at or before x
+        while (from <= to) {
+            int mid = (from + to) >>> 1;
+            if (runStart[mid] <= x) {
+                if (x <= runEnd[mid]) {
+                    return true;
+                }
+                from = mid + 1;
+            } else {
+                to = mid - 1;
+            }
+        }
+        return false;
+    }
+
+    public long getForegroundArea() {
+        long area = 0;
+        for (int r = 0; r < runCount; r++) {
+            area += runEnd[r] - runStart[r] + 1;
+        }
+        return area;
+    }
+
+    public int getWidth() { return width; }
+
+    public int getHeight() { return height; }
+
+    public int getRunCount() { return runCount; }
+
+    public int getRowStart(int y) { return rowStart[y]; }
+
+    public int getRowEnd(int y) { return rowStart[y + 1]; }
+
+    public int getRunStart(int run) { return runStart[run]; }
+
+    public int getRunEnd(int run) { return runEnd[run]; }
+}
@@ -0,0 +1,83 @@
+package objectdetection;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * @author Andrew King
+ *         Plain Java versions of the pixel kernels, used when the Vector API is not available.
+ *         Heap buffers are read through their backing array, other buffers (such as mapped files) through get
+ */
+public class ScalarKernels implements PixelKernels {
+
+    //regions smaller than this are counted into a single histogram
+    static final int LANE_THRESHOLD = 1024;
+
+    @Override
+    public void threshold(ByteBuffer gray, int offset, int width, int threshold, long[] words, int wordOffset) {
+        //clamped so gray - threshold - 1 can not overflow, it is negative exactly when gray <= threshold
+        int limit = Math.max(-1, Math.min(255, threshold)) + 1;
+        byte[] src = gray.hasArray() ? gray.array() : null;
+        int base = gray.hasArray() ? gray.arrayOffset() + offset : 0;
+        for (int x0 = 0, k = wordOffset; x0 < width; x0 += 64, k++) {
+            int x1 = Math.min(width, x0 + 64);
+            long word = 0;
+            //branch free: the sign bit of gray - limit is the foreground bit
+            if (src != null) {
+                for (int x = x0; x < x1; x++) {
+                    word |= (long) (((src[base + x] & 0xFF) - limit) >>> 31) << (x - x0);
+                }
+            } else {
+                for (int x = x0; x < x1; x++) {
+                    word |= (long) (((gray.get(offset + x) & 0xFF) - limit) >>> 31) << (x - x0);
+                }
+            }
+            words[k] = word;
+        }
+    }
+
+    /**
+     * Counts into four private histograms in turn so consecutive equal pixels do not wait on the same counter,
+     * then folds them together
+     */
+    @Override
+    public void histogram(ByteBuffer gray, int offset, int length, int[] counts) {
+        if (length < LANE_THRESHOLD) {
+            for (int i = offset; i < offset + length; i++) {
+                counts[gray.get(i) & 0xFF]++;
+            }
+            return;
+        }
+        //slot 4 is kept for the lanes so a histogram never clobbers the buffers of a component calculation
+        int[] lanes = ScratchBuffers.get().ints(4, 4 * Histogram.BINS);
+        Arrays.fill(lanes, 0, 4 * Histogram.BINS, 0);
+        int end = offset + length;
+        int upper = offset + (length & ~3);
+        if (gray.hasArray()) {
+            byte[] src = gray.array();
+            int base = gray.arrayOffset();
+            for (int i = base + offset; i < base + upper; i += 4) {
+                lanes[src[i] & 0xFF]++;
+                lanes[256 + (src[i + 1] & 0xFF)]++;
+                lanes[512 + (src[i + 2] & 0xFF)]++;
+                lanes[768 + (src[i + 3] & 0xFF)]++;
+            }
+        } else {
+            for (int i = offset; i < upper; i += 4) {
+                lanes[gray.get(i) & 0xFF]++;
+                lanes[256 + (gray.get(i + 1) & 0xFF)]++;
+                lanes[512 + (gray.get(i + 2) & 0xFF)]++;
+                lanes[768 + (gray.get(i + 3) & 0xFF)]++;
+            }
+        }
+        for (int i = upper; i < end; i++) {
+            lanes[gray.get(i) & 0xFF]++;
+        }
+        for (int bin = 0; bin < Histogram.BINS; bin++) {
+            counts[bin] += lanes[bin] + lanes[256 + bin] + lanes[512 + bin] + lanes[768 + bin];
+        }
+    }
+
+    @Override
+    public String getName() { return "scalar"; }
+}
@@ -0,0 +1,61 @@
+package objectdetection;
+
+import java.util.Arrays;
+
+/**
+ * @author Andrew King
+ *         Per-thread pool of scratch arrays for the per-component calculations. Each slot keeps the largest array
+ *         asked of it so far, so the buffers stay sized to the biggest component instead of the whole image and are
+ *         reused for every component. An array is only valid until its slot is asked for again
+ */
+public final class ScratchBuffers {
+
+    //int slot 4 belongs to the histogram lanes of ScalarKernels
+    private static final int SLOTS = 5;
+
+    private static final ThreadLocal<ScratchBuffers> POOL = ThreadLocal.withInitial(ScratchBuffers::new);
+
+    private final short[][] shorts = new short[SLOTS][0];
+    private final int[][] ints = new int[SLOTS][0];
+    private final double[][] doubles = new double[SLOTS][0];
+
+    private ScratchBuffers() {
+    }
+
+    /**
+     * Returns the pool of the calling thread
+     */
+    public static ScratchBuffers get() { return POOL.get(); }
+
+    /**
+     * Returns an array of at least size entries with the first size entries set to 0
+     */
+    public short[] shorts(int slot, int size) {
+        if (shorts[slot].length < size) {
+            shorts[slot] = new short[size];
+        } else {
+            Arrays.fill(shorts[slot], 0, size, (short) 0);
+        }
+        return shorts[slot];
+    }
+
+    /**
+     * Returns an array of at least size entries, the contents are left over from the last use
+     */
+    public int[] ints(int slot, int size) {
+        if (ints[slot].length < size) {
+            ints[slot] = new int[size];
+        }
+        return ints[slot];
+    }
+
+    /**
+     * Returns an array of at least size entries, the contents are left over from the last use
+     */
+    public double[] doubles(int slot, int size) {
+        if (doubles[slot].length < size) {
+            doubles[slot] = new double[size];
+        }
+        return doubles[slot];
+    }
+}
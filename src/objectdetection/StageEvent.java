@@ -0,0 +1,35 @@
+package objectdetection;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * @author Andrew King
+ *         Flight Recorder event for one stage of a detection, its duration is the stage's wall time
+ */
+@Name("objectdetection.Stage")
+@Label("Detection Stage")
+@Category("Object Detection")
+@Description("One stage of ObjectDetector.detect")
+@StackTrace(false)
+final class StageEvent extends Event {
+
+    @Label("Stage")
+    String stage;
+
+    @Label("Allocated")
+    @Description("Bytes allocated by the detecting thread during the stage, -1 if unknown")
+    @DataAmount
+    long allocated;
+
+    @Label("Width")
+    int width;
+
+    @Label("Height")
+    int height;
+}
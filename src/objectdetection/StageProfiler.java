@@ -0,0 +1,155 @@
+package objectdetection;
+
+import jdk.jfr.EventType;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * @author Andrew King
+ *         Times the stages of one detection and hands them to the detector's DetectionMetrics and to Flight Recorder.
+ *         Whether it is on is decided once per detection in start(), when there are no metrics and no recording
+ *         wants the events every other call returns straight away. Allocations are read for the calling thread only,
+ *         so the stripes labeled on the fork-join pool are not included
+ */
+final class StageProfiler {
+
+    private static final EventType STAGE_EVENTS = EventType.getEventType(StageEvent.class);
+    private static final EventType DETECTION_EVENTS = EventType.getEventType(DetectionEvent.class);
+    //null when the JVM can not report allocations per thread
+    private static final com.sun.management.ThreadMXBean ALLOCATIONS = allocationBean();
+
+    DetectionMetrics metrics;
+    private boolean enabled;
+    private int width, height;
+    private String thresholdMethod;
+    //stage in progress (null between stages) and where it started
+    private DetectionMetrics.Stage stage;
+    private StageEvent stageEvent;
+    private long stageStart;
+    private long stageStartBytes;
+    private DetectionEvent detectionEvent;
+    private long detectionStartBytes;
+    private final long[] counts = new long[DetectionMetrics.Counter.values().length];
+
+    private static com.sun.management.ThreadMXBean allocationBean() {
+        try {
+            ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+            if (bean instanceof com.sun.management.ThreadMXBean) {
+                com.sun.management.ThreadMXBean allocations = (com.sun.management.ThreadMXBean) bean;
+                if (allocations.isThreadAllocatedMemorySupported()) {
+                    allocations.setThreadAllocatedMemoryEnabled(true);
+                    return allocations;
+                }
+            }
+        } catch (LinkageError | UnsupportedOperationException | SecurityException e) {
+            //jdk.management is not there or not allowed, fall through
+        }
+        return null;
+    }
+
+    private static long allocatedBytes() {
+        return ALLOCATIONS == null ? -1 : ALLOCATIONS.getCurrentThreadAllocatedBytes();
+    }
+
+    boolean isEnabled() { return enabled; }
+
+    /**
+     * Starts a detection, after this the stages and counts are recorded until finish()
+     */
+    void start(int width, int height, ThresholdMethod method) {
+        enabled = metrics != null || STAGE_EVENTS.isEnabled() || DETECTION_EVENTS.isEnabled();
+        if (!enabled) {
+            return;
+        }
+        this.width = width;
+        this.height = height;
+        thresholdMethod = method.name();
+        stage = null;
+        for (int c = 0; c < counts.length; c++) {
+            counts[c] = -1;
+        }
+        detectionStartBytes = allocatedBytes();
+        detectionEvent = new DetectionEvent();
+        detectionEvent.begin();
+    }
+
+    /**
+     * Ends the stage in progress, if any, and starts the next one
+     */
+    void begin(DetectionMetrics.Stage next) {
+        if (!enabled) {
+            return;
+        }
+        end();
+        stage = next;
+        stageEvent = new StageEvent();
+        stageStartBytes = allocatedBytes();
+        stageStart = System.nanoTime();
+        stageEvent.begin();
+    }
+
+    /**
+     * Ends the stage in progress, if any
+     */
+    void end() {
+        if (!enabled || stage == null) {
+            return;
+        }
+        stageEvent.end();
+        long nanos = System.nanoTime() - stageStart;
+        long allocated = ALLOCATIONS == null ? -1 : allocatedBytes() - stageStartBytes;
+        if (stageEvent.shouldCommit()) {
+            stageEvent.stage = stage.name();
+            stageEvent.allocated = allocated;
+            stageEvent.width = width;
+            stageEvent.height = height;
+            stageEvent.commit();
+        }
+        if (metrics != null) {
+            metrics.stageCompleted(stage, nanos, allocated);
+        }
+        stage = null;
+        stageEvent = null;
+    }
+
+    void count(DetectionMetrics.Counter counter, long value) {
+        if (!enabled) {
+            return;
+        }
+        counts[counter.ordinal()] = value;
+        if (metrics != null) {
+            metrics.counted(counter, value);
+        }
+    }
+
+    /**
+     * Ends the last stage and the detection
+     */
+    void finish() {
+        if (!enabled) {
+            return;
+        }
+        end();
+        enabled = false;
+        detectionEvent.end();
+        if (detectionEvent.shouldCommit()) {
+            detectionEvent.width = width;
+            detectionEvent.height = height;
+            detectionEvent.thresholdMethod = thresholdMethod;
+            detectionEvent.allocated = ALLOCATIONS == null ? -1 : allocatedBytes() - detectionStartBytes;
+            //counts that do not apply to the run (like the medial axis in features-only mode) stay at -1
+            detectionEvent.foregroundPixels = counts[DetectionMetrics.Counter.FOREGROUND_PIXELS.ordinal()];
+            detectionEvent.provisionalLabels = counts[DetectionMetrics.Counter.PROVISIONAL_LABELS.ordinal()];
+            detectionEvent.equivalencesMerged = counts[DetectionMetrics.Counter.EQUIVALENCES_MERGED.ordinal()];
+            detectionEvent.componentsBeforeFilter = counts[DetectionMetrics.Counter.COMPONENTS_BEFORE_FILTER.ordinal()];
+            detectionEvent.componentsAfterFilter = counts[DetectionMetrics.Counter.COMPONENTS_AFTER_FILTER.ordinal()];
+            detectionEvent.medialAxisPixels = counts[DetectionMetrics.Counter.MEDIAL_AXIS_PIXELS.ordinal()];
+            detectionEvent.commit();
+        }
+        detectionEvent = null;
+        if (metrics != null) {
+            metrics.detectionCompleted(width, height);
+        }
+    }
+}
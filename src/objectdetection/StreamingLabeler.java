@@ -0,0 +1,290 @@
+package objectdetection;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+/**
+ * @author Andrew King
+ *         Labels an image of unknown height one row at a time (a line-scan strip for example) and hands every
+ *         component to the consumer, with the features-only metrics (area, centroid, bounds and moments), as soon as a
+ *         row no longer touches it. Only the foreground runs of the previous and current row are kept, each with an
+ *         int slot in a union-find over the open components, and slots are recycled once nothing refers to them, so
+ *         memory is bounded by the width and the number of open components however many rows go through.
+ *         Foreground is gray <= threshold (the histogram based methods need the whole image). Components are numbered
+ *         from 2 in the order they are emitted, 4-connected like the other labelers. Their coordinates are ints like
+ *         everywhere else, so an image can have at most Integer.MAX_VALUE rows (finish() starts a new one at row 0)
+ */
+public class StreamingLabeler {
+
+    private final int width;
+    private final int threshold;
+    private final int filterSize;
+    private final Consumer<ConnectedComponent> consumer;
+
+    //the bits of the row being labeled
+    private final BitImage rowBits = new BitImage();
+    //foreground runs (first and last x, inclusive) and their slots, of the previous and the current row
+    private int[] previousStart, previousEnd, previousSlot;
+    private int[] currentStart, currentEnd, currentSlot;
+    private int previousCount, currentCount;
+
+    //union-find over the slots, 0 is never used and a free slot has parent 0
+    private int[] parent = new int[64];
+    //row-major index of the first pixel of each slot, the root of a set is the slot that started first
+    private long[] firstPixel = new long[64];
+    //last row each root had a run on
+    private long[] lastRow = new long[64];
+    private final FeatureAccumulator features = new FeatureAccumulator(64);
+    private final IntList freeSlots = new IntList();
+    //slots to free at the end of the row
+    private final IntList merged = new IntList();
+    private final IntList completed = new IntList();
+    private int slotLimit = 1;
+
+    private long row;
+    private int emitted;
+
+    /**
+     * Components smaller than filterSize pixels are dropped instead of emitted
+     */
+    public StreamingLabeler(int width, int threshold, int filterSize, Consumer<ConnectedComponent> consumer) {
+        if (width < 1) {
+            throw new IllegalArgumentException("Width must be at least 1 but was " + width);
+        }
+        this.width = width;
+        this.threshold = threshold;
+        this.filterSize = filterSize;
+        this.consumer = consumer;
+        //a row holds at most (width + 1) / 2 runs
+        int maxRuns = (width + 1) / 2;
+        previousStart = new int[maxRuns];
+        previousEnd = new int[maxRuns];
+        previousSlot = new int[maxRuns];
+        currentStart = new int[maxRuns];
+        currentEnd = new int[maxRuns];
+        currentSlot = new int[maxRuns];
+    }
+
+    /**
+     * Labels the next row, width gray values from the buffer's position (which is not moved)
+     */
+    public void pushRow(ByteBuffer gray) {
+        if (gray.remaining() < width) {
+            throw new IllegalArgumentException("Expected a row of " + width + " pixels but the buffer only has " + gray.remaining());
+        }
+        //rows are int coordinates, and the height of a component from row 0 to Integer.MAX_VALUE would not fit an int
+        if (row == Integer.MAX_VALUE) {
+            throw new IllegalStateException("An image can have at most " + Integer.MAX_VALUE + " rows, call finish() "
+                    + "to emit its components and start a new one");
+        }
+        rowBits.threshold(gray.slice(), width, 1, threshold);
+        int y = (int) row;
+        long rowOffset = row * width;
+        currentCount = 0;
+        int above = 0;
+        for (int x0 = rowBits.nextSetInRow(0, 0); x0 < width; ) {
+            int x1 = rowBits.nextClearInRow(0, x0) - 1;
+            //runs above that end before this one starts can not touch this or any later run
+            while (above < previousCount && previousEnd[above] < x0) {
+                above++;
+            }
+            int slot = 0;
+            //4-connected: the runs share at least one column
+            for (int n = above; n < previousCount && previousStart[n] <= x1; n++) {
+                slot = slot == 0 ? find(previousSlot[n]) : union(slot, previousSlot[n]);
+            }
+            if (slot == 0) {
+                slot = newSlot(rowOffset + x0);
+            }
+            features.addRun(slot, y, x0, x1);
+            currentStart[currentCount] = x0;
+            currentEnd[currentCount] = x1;
+            currentSlot[currentCount] = slot;
+            currentCount++;
+            x0 = rowBits.nextSetInRow(0, x1 + 1);
+        }
+        endRow();
+        row++;
+    }
+
+    public void pushRow(byte[] gray, int offset) {
+        pushRow(ByteBuffer.wrap(gray, offset, width));
+    }
+
+    /**
+     * Labels every row the channel holds, without calling finish(), and returns the number of rows read
+     * (a stream that ends part way through a row is an error)
+     */
+    public long read(ReadableByteChannel channel) throws IOException {
+        //read a few hundred KB at a time but always whole rows
+        int rowsPerRead = Math.max(1, (256 * 1024) / width);
+        ByteBuffer buffer = ByteBuffer.allocate(rowsPerRead * width);
+        long rows = 0;
+        while (true) {
+            int read = channel.read(buffer);
+            buffer.flip();
+            while (buffer.remaining() >= width) {
+                pushRow(buffer);
+                buffer.position(buffer.position() + width);
+                rows++;
+            }
+            if (read < 0) {
+                if (buffer.hasRemaining()) {
+                    throw new EOFException("The stream ended " + buffer.remaining() + " bytes into a row of " + width);
+                }
+                return rows;
+            }
+            buffer.compact();
+        }
+    }
+
+    public long read(InputStream in) throws IOException {
+        return read(Channels.newChannel(in));
+    }
+
+    /**
+     * Ends the image: emits the components still open and starts again from row 0
+     */
+    public void finish() {
+        for (int r = 0; r < previousCount; r++) {
+            int root = previousSlot[r];
+            if (parent[root] != 0) {
+                emit(root);
+                release(root);
+            }
+        }
+        previousCount = 0;
+        row = 0;
+    }
+
+    public long getRowCount() { return row; }
+
+    public int getEmittedCount() { return emitted; }
+
+    //number of slots currently holding a run or an open component
+    public int getOpenSlots() { return slotLimit - 1 - freeSlots.size(); }
+
+    /**
+     * Resolves the current row to its roots, emits the components the row did not reach and frees every slot
+     * nothing refers to any more
+     */
+    private void endRow() {
+        //the previous row only held roots, so once the current row is rewritten to its roots any slot of either row
+        //that is no longer a root is unreferenced. Nothing is freed until every find is done
+        for (int r = 0; r < currentCount; r++) {
+            int slot = currentSlot[r];
+            int root = find(slot);
+            if (root != slot) {
+                merged.add(slot);
+            }
+            currentSlot[r] = root;
+            lastRow[root] = row;
+        }
+        //a previous run whose root has no run on this row can not grow any more
+        for (int r = 0; r < previousCount; r++) {
+            int slot = previousSlot[r];
+            int root = find(slot);
+            if (root != slot) {
+                merged.add(slot);
+            }
+            if (lastRow[root] < row) {
+                //mark it so the other runs of the same component do not emit it again
+                lastRow[root] = row;
+                emit(root);
+                completed.add(root);
+            }
+        }
+        releaseAll(merged);
+        releaseAll(completed);
+        int[] swap = previousStart;
+        previousStart = currentStart;
+        currentStart = swap;
+        swap = previousEnd;
+        previousEnd = currentEnd;
+        currentEnd = swap;
+        swap = previousSlot;
+        previousSlot = currentSlot;
+        currentSlot = swap;
+        previousCount = currentCount;
+    }
+
+    //frees the slots of the list (skipping those it holds twice) and empties it
+    private void releaseAll(IntList slots) {
+        for (int i = 0; i < slots.size(); i++) {
+            int slot = slots.values[i];
+            if (parent[slot] != 0) {
+                release(slot);
+            }
+        }
+        slots.clear();
+    }
+
+    private void emit(int root) {
+        if (features.getArea(root) >= filterSize) {
+            ConnectedComponent cc = new ConnectedComponent();
+            cc.label = emitted + 2;
+            features.applyTo(root, cc);
+            emitted++;
+            consumer.accept(cc);
+        }
+    }
+
+    private int newSlot(long pixel) {
+        int slot;
+        if (freeSlots.isEmpty()) {
+            slot = slotLimit++;
+            if (slot == parent.length) {
+                int capacity = parent.length * 2;
+                parent = Arrays.copyOf(parent, capacity);
+                firstPixel = Arrays.copyOf(firstPixel, capacity);
+                lastRow = Arrays.copyOf(lastRow, capacity);
+            }
+            features.ensureCapacity(slot);
+        } else {
+            slot = freeSlots.values[freeSlots.size - 1];
+            freeSlots.size--;
+        }
+        parent[slot] = slot;
+        firstPixel[slot] = pixel;
+        lastRow[slot] = row;
+        return slot;
+    }
+
+    private void release(int slot) {
+        parent[slot] = 0;
+        features.clear(slot);
+        freeSlots.add(slot);
+    }
+
+    //find the root of the slot, halving the path as we go
+    private int find(int slot) {
+        while (parent[slot] != slot) {
+            parent[slot] = parent[parent[slot]];
+            slot = parent[slot];
+        }
+        return slot;
+    }
+
+    /**
+     * Joins the set of the root with the set of the slot, the set that started first keeps its root and takes the
+     * sums of the other, returns the root of the joined set
+     */
+    private int union(int root, int slot) {
+        int other = find(slot);
+        if (other == root) {
+            return root;
+        }
+        int winner = firstPixel[root] < firstPixel[other] ? root : other;
+        int loser = winner == root ? other : root;
+        features.mergeInto(loser, features, winner);
+        features.clear(loser);
+        parent[loser] = winner;
+        return winner;
+    }
+}
@@ -0,0 +1,17 @@
+package objectdetection;
+
+/**
+ * @author Andrew King
+ *         The thresholding algorithms the detector can use to turn a gray scale image into a binary image
+ */
+public enum ThresholdMethod {
+    SIMPLE,
+    MODE,
+    ITERATIVE,
+    ADAPTIVE,
+    DOUBLE,
+    OTSU,
+    //sliding window local thresholds read from an integral image
+    BRADLEY,
+    SAUVOLA
+}